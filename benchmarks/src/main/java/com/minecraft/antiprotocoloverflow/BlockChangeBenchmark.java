@@ -0,0 +1,125 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * handleBlockChangePacket的判断部分：状态ID查表确认是否受保护，受保护时计算与玩家的距离，
+ * 远处的方块再按区块记录判断是否延迟显示（VisibilityRules.defers）。
+ * 从WrappedBlockData取得状态ID需要服务端，这里直接使用合成的状态ID；区块记录与ProtectedBlockIndex一样按区块键保存。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockChangeBenchmark {
+    private static final int PACKETS = 1024;
+    // 与当前版本的方块状态数量相近
+    private static final int STATE_COUNT = 27000;
+    private static final int BLOCKS_PER_CHUNK = 24;
+
+    // 受保护方块状态在方块变化中所占的比例
+    @Param({"0.01", "0.2"})
+    public double protectedShare;
+
+    // 是否开启payload-weight：开启时区块记录带有数据量，按阈值判断；关闭时所有受保护方块都延迟显示
+    @Param({"false", "true"})
+    public boolean weighed;
+
+    private BlockStateTable table;
+    private VisibilityRules rules;
+    private int[] stateIds;
+    private int[] xs;
+    private int[] ys;
+    private int[] zs;
+    private long[] keys;
+    private final Map<Long, ProtectedBlockIndex.ChunkEntry> chunks = new ConcurrentHashMap<>();
+
+    @Setup
+    public void setup() {
+        Material[] all = Material.values();
+        Material[] materialById = new Material[STATE_COUNT];
+        for (int id = 0; id < STATE_COUNT; id++) {
+            materialById[id] = all[id % all.length];
+        }
+        Set<Material> protectedTypes = EnumSet.of(Material.CHEST, Material.TRAPPED_CHEST, Material.OAK_SIGN);
+        table = BlockStateTable.of(Logger.getLogger("benchmark"), materialById, protectedTypes);
+        rules = new VisibilityRules(16);
+        if (weighed) {
+            rules.setWeightThresholds(4096, 65536L);
+        }
+
+        // 玩家周围6×6个区块，每个区块24个受保护方块，其中四分之一是装满的容器
+        Random random = new Random(42);
+        for (int cx = -3; cx < 3; cx++) {
+            for (int cz = -3; cz < 3; cz++) {
+                long[] positions = new long[BLOCKS_PER_CHUNK];
+                Material[] types = new Material[BLOCKS_PER_CHUNK];
+                int[] weights = new int[BLOCKS_PER_CHUNK];
+                for (int i = 0; i < BLOCKS_PER_CHUNK; i++) {
+                    positions[i] = BlockKeys.pack((cx << 4) + random.nextInt(16), 40 + random.nextInt(48), (cz << 4) + random.nextInt(16));
+                    types[i] = Material.CHEST;
+                    weights[i] = random.nextInt(4) == 0 ? 8000 + random.nextInt(16000) : 40 + random.nextInt(400);
+                }
+                chunks.put(BlockKeys.chunkKey(cx, cz), weighed
+                        ? new ProtectedBlockIndex.ChunkEntry(positions, types, weights)
+                        : new ProtectedBlockIndex.ChunkEntry(positions, types));
+            }
+        }
+
+        int chestId = Material.CHEST.ordinal();
+        stateIds = new int[PACKETS];
+        xs = new int[PACKETS];
+        ys = new int[PACKETS];
+        zs = new int[PACKETS];
+        keys = new long[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            if (random.nextDouble() < protectedShare) {
+                // 受保护方块的变化发生在已索引的位置
+                stateIds[i] = chestId;
+                ProtectedBlockIndex.ChunkEntry entry = chunks.get(BlockKeys.chunkKey(random.nextInt(6) - 3, random.nextInt(6) - 3));
+                keys[i] = entry.positions[random.nextInt(BLOCKS_PER_CHUNK)];
+            } else {
+                stateIds[i] = random.nextInt(STATE_COUNT);
+                keys[i] = BlockKeys.pack(random.nextInt(96) - 48, 40 + random.nextInt(48), random.nextInt(96) - 48);
+            }
+            xs[i] = BlockKeys.unpackX(keys[i]);
+            ys[i] = BlockKeys.unpackY(keys[i]);
+            zs[i] = BlockKeys.unpackZ(keys[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public int filterBlockChanges() {
+        int hidden = 0;
+        for (int i = 0; i < PACKETS; i++) {
+            if (table.isProtectedId(stateIds[i]) && rules.isFar(0.5, 64.0, 0.5, xs[i], ys[i], zs[i])
+                    && rules.defers(chunks.get(BlockKeys.chunkKey(xs[i] >> 4, zs[i] >> 4)), keys[i])) {
+                hidden++;
+            }
+        }
+        return hidden;
+    }
+}
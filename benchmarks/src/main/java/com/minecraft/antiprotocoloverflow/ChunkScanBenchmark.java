@@ -0,0 +1,58 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * scanChunkForProtectedBlocks的计算部分：从区块分类结果中选出远处的受保护方块并排序
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkScanBenchmark {
+    // 区块中受保护方块的数量，4096相当于整层铺满箱子的仓库区块
+    @Param({"16", "256", "4096"})
+    public int blocksPerChunk;
+
+    // 玩家与区块的水平距离（区块数），0表示玩家就在该区块中
+    @Param({"0", "3"})
+    public int chunkDistance;
+
+    private VisibilityRules rules;
+    private ProtectedBlockIndex.ChunkEntry entry;
+
+    @Setup
+    public void setup() {
+        rules = new VisibilityRules(16);
+        Random random = new Random(42);
+        long[] positions = new long[blocksPerChunk];
+        Material[] types = new Material[blocksPerChunk];
+        for (int i = 0; i < blocksPerChunk; i++) {
+            positions[i] = BlockKeys.pack(random.nextInt(16), -64 + random.nextInt(384), random.nextInt(16));
+            types[i] = i % 8 == 0 ? Material.OAK_SIGN : Material.CHEST;
+        }
+        entry = new ProtectedBlockIndex.ChunkEntry(positions, types);
+    }
+
+    @Benchmark
+    public List<VisibilityRules.HiddenCandidate> selectHidden() {
+        return rules.selectHidden(entry, 8.5 + chunkDistance * 16, 64.0, 8.5);
+    }
+}
@@ -0,0 +1,89 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 容器类型判断：按序号查表与原来逐个比较枚举的写法对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerTypeBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private Material[] materials;
+
+    @Setup
+    public void setup() {
+        Material[] all = Material.values();
+        Random random = new Random(42);
+        materials = new Material[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            // 约四分之一为容器，其余为任意类型
+            materials[i] = random.nextInt(4) == 0 ? Material.CHEST : all[random.nextInt(all.length)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int lookupTable() {
+        int count = 0;
+        for (Material material : materials) {
+            if (BlockTypes.isContainer(material)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int chainedComparison() {
+        int count = 0;
+        for (Material material : materials) {
+            if (isContainerChained(material)) count++;
+        }
+        return count;
+    }
+
+    // 改为查表之前PacketHandler.isContainerType的写法，作为对照
+    private static boolean isContainerChained(Material material) {
+        return material == Material.CHEST || material == Material.TRAPPED_CHEST ||
+               material == Material.BARREL || material == Material.SHULKER_BOX ||
+               material == Material.WHITE_SHULKER_BOX || material == Material.ORANGE_SHULKER_BOX ||
+               material == Material.MAGENTA_SHULKER_BOX || material == Material.LIGHT_BLUE_SHULKER_BOX ||
+               material == Material.YELLOW_SHULKER_BOX || material == Material.LIME_SHULKER_BOX ||
+               material == Material.PINK_SHULKER_BOX || material == Material.GRAY_SHULKER_BOX ||
+               material == Material.LIGHT_GRAY_SHULKER_BOX || material == Material.CYAN_SHULKER_BOX ||
+               material == Material.PURPLE_SHULKER_BOX || material == Material.BLUE_SHULKER_BOX ||
+               material == Material.BROWN_SHULKER_BOX || material == Material.GREEN_SHULKER_BOX ||
+               material == Material.RED_SHULKER_BOX || material == Material.BLACK_SHULKER_BOX ||
+               material == Material.ENDER_CHEST || material == Material.HOPPER ||
+               material == Material.DROPPER || material == Material.DISPENSER ||
+               material == Material.FURNACE || material == Material.BLAST_FURNACE ||
+               material == Material.SMOKER || material == Material.BREWING_STAND ||
+               material == Material.LECTERN || material == Material.CARTOGRAPHY_TABLE ||
+               material == Material.LOOM || material == Material.STONECUTTER ||
+               material == Material.GRINDSTONE || material == Material.ANVIL ||
+               material == Material.CHIPPED_ANVIL || material == Material.DAMAGED_ANVIL ||
+               material == Material.BEACON || material == Material.ENCHANTING_TABLE ||
+               material == Material.BOOKSHELF || material == Material.COMPOSTER ||
+               material == Material.CRAFTING_TABLE || material == Material.SMITHING_TABLE ||
+               material == Material.FLETCHING_TABLE;
+    }
+}
@@ -0,0 +1,236 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * 基准测试用的最小服务端
+ * ItemStack的元数据、equals/hashCode/hasItemMeta都要经过Bukkit.getItemFactory()，
+ * 这里用动态代理提供物品工厂：潜影盒的元数据记录名称、描述和盒内物品，按内容比较，
+ * getAsString()按服务端的格式输出盒内物品，插件的hasContents、占位物品和字节估算都走真实的代码路径。
+ * 其他物品没有元数据，服务端的其余方法返回默认值。
+ */
+final class FakeServer {
+    private static boolean installed;
+
+    private FakeServer() {
+    }
+
+    static synchronized void install() {
+        if (installed || Bukkit.getServer() != null) {
+            installed = true;
+            return;
+        }
+        Logger logger = Logger.getLogger("FakeServer");
+        ItemFactory itemFactory = proxy(ItemFactory.class, (method, args) -> {
+            switch (method) {
+                case "equals":
+                    return args != null && args.length == 2 ? Objects.equals(args[0], args[1]) : null;
+                case "getItemMeta":
+                    return BlockTypes.isShulkerBox((Material) args[0]) ? new ShulkerMeta().proxy() : null;
+                case "isApplicable":
+                    return true;
+                case "asMetaFor":
+                    return args[0];
+                default:
+                    return null;
+            }
+        });
+        Server server = proxy(Server.class, (method, args) -> {
+            switch (method) {
+                case "getItemFactory":
+                    return itemFactory;
+                case "getLogger":
+                    return logger;
+                case "getName":
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "benchmark";
+                default:
+                    return null;
+            }
+        });
+        Bukkit.setServer(server);
+        installed = true;
+    }
+
+    /**
+     * 带名称和内容的潜影盒
+     * @param name 显示名称，为null时没有名称
+     */
+    static ItemStack shulkerBox(Material type, String name, ItemStack... contents) {
+        install();
+        ItemStack item = new ItemStack(type);
+        BlockStateMeta meta = (BlockStateMeta) item.getItemMeta();
+        if (name != null) {
+            meta.setDisplayName(name);
+        }
+        ShulkerMeta data = (ShulkerMeta) Proxy.getInvocationHandler(meta);
+        data.contents = Arrays.copyOf(contents, 27);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    // 潜影盒元数据，按内容比较
+    private static final class ShulkerMeta implements InvocationHandler {
+        String displayName;
+        List<String> lore;
+        // 盒内物品，为null时没有方块状态
+        ItemStack[] contents;
+
+        BlockStateMeta proxy() {
+            return (BlockStateMeta) Proxy.newProxyInstance(BlockStateMeta.class.getClassLoader(),
+                    new Class<?>[]{BlockStateMeta.class}, this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                            && Proxy.getInvocationHandler(args[0]) instanceof ShulkerMeta
+                            && sameContent((ShulkerMeta) Proxy.getInvocationHandler(args[0]));
+                case "hashCode":
+                    return Objects.hash(displayName, lore, Arrays.hashCode(contents));
+                case "toString":
+                    return getAsString();
+                case "clone":
+                    return copy().proxy();
+                case "hasDisplayName":
+                    return displayName != null;
+                case "getDisplayName":
+                    return displayName;
+                case "setDisplayName":
+                    displayName = (String) args[0];
+                    return null;
+                case "hasLore":
+                    return lore != null;
+                case "getLore":
+                    return lore == null ? null : new ArrayList<>(lore);
+                case "setLore":
+                    lore = args[0] == null ? null : new ArrayList<>((List<String>) args[0]);
+                    return null;
+                case "hasBlockState":
+                    return contents != null;
+                case "getBlockState":
+                    return shulkerState(contents == null ? new ItemStack[27] : contents.clone());
+                case "getAsString":
+                    return getAsString();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private boolean sameContent(ShulkerMeta other) {
+            return Objects.equals(displayName, other.displayName) && Objects.equals(lore, other.lore)
+                    && Arrays.equals(contents, other.contents);
+        }
+
+        private ShulkerMeta copy() {
+            ShulkerMeta copy = new ShulkerMeta();
+            copy.displayName = displayName;
+            copy.lore = lore == null ? null : new ArrayList<>(lore);
+            copy.contents = contents == null ? null : contents.clone();
+            return copy;
+        }
+
+        // 与服务端ItemMeta.getAsString()相同形式的组件文本
+        private String getAsString() {
+            StringBuilder builder = new StringBuilder("[");
+            if (displayName != null) {
+                builder.append("minecraft:custom_name='{\"text\":\"").append(displayName).append("\"}'");
+            }
+            if (contents != null) {
+                if (builder.length() > 1) builder.append(',');
+                builder.append("minecraft:container=[");
+                boolean first = true;
+                for (int slot = 0; slot < contents.length; slot++) {
+                    ItemStack item = contents[slot];
+                    if (item == null || item.getType() == Material.AIR) continue;
+                    if (!first) builder.append(',');
+                    first = false;
+                    builder.append("{item:{count:").append(item.getAmount()).append(",id:\"minecraft:")
+                            .append(item.getType().name().toLowerCase()).append("\"},slot:").append(slot).append('}');
+                }
+                builder.append(']');
+            }
+            return builder.append(']').toString();
+        }
+    }
+
+    // 只提供getInventory的潜影盒方块状态
+    private static ShulkerBox shulkerState(ItemStack[] contents) {
+        Inventory inventory = proxy(Inventory.class, (method, args) -> {
+            switch (method) {
+                case "isEmpty":
+                    for (ItemStack item : contents) {
+                        if (item != null && item.getType() != Material.AIR) return false;
+                    }
+                    return true;
+                case "getContents":
+                    return contents.clone();
+                case "getSize":
+                    return contents.length;
+                case "getItem":
+                    return contents[(Integer) args[0]];
+                default:
+                    return null;
+            }
+        });
+        return proxy(ShulkerBox.class, (method, args) -> method.equals("getInventory") ? inventory : null);
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    if (args == null) return System.identityHashCode(self);
+                    break;
+                case "equals":
+                    if (args != null && args.length == 1) return self == args[0];
+                    break;
+                case "toString":
+                    if (args == null) return "Fake" + type.getSimpleName();
+                    break;
+                default:
+                    break;
+            }
+            Object result = handler.invoke(method.getName(), args);
+            return result != null ? result : defaultValue(method.getReturnType());
+        });
+        return type.cast(instance);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        if (type == double.class) return 0d;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+}
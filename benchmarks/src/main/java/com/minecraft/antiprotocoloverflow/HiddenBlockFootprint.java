@@ -0,0 +1,120 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.wrappers.BlockPosition;
+import org.bukkit.Material;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * 隐藏方块存储的堆内存实测
+ * 分别用原来的HashMap&lt;BlockPosition, Material&gt;、单个HiddenBlockMap和HiddenBlockStore存入同样的方块，
+ * 每种结构在填充前后各做几次完整GC，用已用堆的差值除以条目数得到每条目的实际占用。
+ * 同时输出estimatedBytes()的估算值，便于核对/status中显示的数字。
+ *
+ * 布局：
+ * - sparse：方块随机分布在20000×20000的范围内，几乎每个区块段只有一个（各处零散的箱子、告示牌）
+ * - dense：方块集中在少数区块中（仓库、潜影盒墙）
+ *
+ * 用法：java -cp target/benchmarks.jar com.minecraft.antiprotocoloverflow.HiddenBlockFootprint [条目数]
+ * 建议加上-XX:+UseSerialGC使GC后的已用堆更稳定。
+ */
+public final class HiddenBlockFootprint {
+    private static final Material[] TYPES = {Material.CHEST, Material.BARREL, Material.OAK_SIGN, Material.SHULKER_BOX};
+    // 测量期间持有被测结构
+    private static Object retained;
+
+    private HiddenBlockFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long[] sparse = sparsePositions(entries, new Random(1));
+        long[] dense = densePositions(entries);
+
+        System.out.printf("%-10s %-20s %10s %14s%n", "layout", "structure", "measured", "estimated");
+        for (String layout : new String[]{"sparse", "dense"}) {
+            long[] positions = layout.equals("sparse") ? sparse : dense;
+            report(layout, "HashMap", measure(() -> fillHashMap(positions)), -1, positions.length);
+            HiddenBlockMap map = new HiddenBlockMap();
+            report(layout, "HiddenBlockMap", measure(() -> fillMap(map, positions)), map.estimatedBytes(), positions.length);
+            HiddenBlockStore store = new HiddenBlockStore();
+            report(layout, "HiddenBlockStore", measure(() -> fillStore(store, positions)), store.estimatedBytes(), positions.length);
+        }
+    }
+
+    private static void report(String layout, String structure, long measured, long estimated, int entries) {
+        System.out.printf("%-10s %-20s %8.1f B %12s%n", layout, structure, (double) measured / entries,
+                estimated < 0 ? "-" : String.format("%.1f B", (double) estimated / entries));
+    }
+
+    // 返回结构保留的堆字节数，结构在测量期间保持可达
+    private static long measure(Supplier<Object> builder) {
+        long before = usedHeap();
+        retained = builder.get();
+        long after = usedHeap();
+        retained = null;
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static Object fillHashMap(long[] positions) {
+        Map<BlockPosition, Material> map = new HashMap<>();
+        for (int i = 0; i < positions.length; i++) {
+            long key = positions[i];
+            map.put(new BlockPosition(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key)), TYPES[i & 3]);
+        }
+        return map;
+    }
+
+    private static Object fillMap(HiddenBlockMap map, long[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            map.put(positions[i], TYPES[i & 3]);
+        }
+        return map;
+    }
+
+    private static Object fillStore(HiddenBlockStore store, long[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            store.put(positions[i], TYPES[i & 3]);
+        }
+        return store;
+    }
+
+    private static long[] sparsePositions(int count, Random random) {
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = BlockKeys.pack(random.nextInt(20000) - 10000, random.nextInt(320) - 64, random.nextInt(20000) - 10000);
+        }
+        return positions;
+    }
+
+    // 每个区块填满地面以上8层：16×16×8 = 2048个方块
+    private static long[] densePositions(int count) {
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++) {
+            int chunk = i / 2048;
+            int inChunk = i % 2048;
+            int chunkX = chunk % 64;
+            int chunkZ = chunk / 64;
+            positions[i] = BlockKeys.pack((chunkX << 4) + (inChunk & 15), 64 + (inChunk >> 8), (chunkZ << 4) + ((inChunk >> 4) & 15));
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,449 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.wrappers.BlockPosition;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 登录高峰离线模拟
+ * 模拟大量玩家在几秒内同时进入一片布满潜影盒、箱子和告示牌的区域（如服务器重启后玩家集中重连），
+ * 按tick推进并记录每tick发送的数据包数量和字节数、调度队列深度、新建的调度任务数量以及每tick耗时。
+ *
+ * PacketHandler依赖ProtocolLib的ProtocolManager和服务端数据包类，无法离线构造，
+ * 这里组合与PacketHandler相同的组件（发包调度器、自适应速度、字节额度、可见性规则、隐藏方块表、窗口物品过滤），
+ * 显示和延迟物品槽直接运行PacketHandler使用的PriorityRevealJob和DelayedSlotJob，只把实际发送替换为计数，
+ * 玩家网络用固定带宽的链路近似。相同的参数得到相同的结果（耗时除外）。
+ *
+ * 用法：java -cp target/benchmarks.jar com.minecraft.antiprotocoloverflow.JoinStormSimulator [--参数 值 ...]
+ */
+public final class JoinStormSimulator {
+    // 区块数据包的大致字节数
+    private static final int CHUNK_PACKET_BYTES = 12000;
+    private static final Material[] PROTECTED_TYPES = {
+            Material.CHEST, Material.TRAPPED_CHEST, Material.SHULKER_BOX, Material.RED_SHULKER_BOX, Material.OAK_SIGN
+    };
+
+    private final Options options;
+    private final Random random;
+    private final VisibilityRules rules = new VisibilityRules(16);
+    private final PacketScheduler scheduler;
+    private final AdaptivePacer pacer;
+    private final ByteBudget byteBudget;
+    private final ItemWeightEstimator itemWeightEstimator = new ItemWeightEstimator();
+    private final WindowItemsFilter windowItemsFilter;
+    private final Map<Long, ProtectedBlockIndex.ChunkEntry> chunks = new HashMap<>();
+    private final List<SimPlayer> players = new ArrayList<>();
+
+    // 本tick的计数
+    private long tickPackets;
+    private long tickBytes;
+    private int tickJobsCreated;
+
+    // 模拟的玩家
+    private static final class SimPlayer {
+        final UUID id;
+        final int joinTick;
+        final int openTick;
+        double x;
+        double y;
+        double z;
+        double heading;
+        double revealX;
+        double revealZ;
+        long revealSection = Long.MIN_VALUE;
+        boolean online;
+        boolean revealDirty;
+        final HiddenBlockStore hidden = new HiddenBlockStore();
+        final RevealQueue revealQueue = new RevealQueue();
+        List<PacketHandler.DelayedItem> delayedItems = new ArrayList<>();
+        // 模拟链路中尚未送达的字节数
+        long inFlightBytes;
+
+        SimPlayer(UUID id, int joinTick, int openTick) {
+            this.id = id;
+            this.joinTick = joinTick;
+            this.openTick = openTick;
+        }
+    }
+
+    // 模拟参数
+    static final class Options {
+        int players = 120;
+        int joinTicks = 60;
+        int ticks = 1200;
+        int viewDistance = 6;
+        int blocksPerChunk = 24;
+        int spawnRadius = 48;
+        double openChance = 0.6;
+        double heavyShulkerShare = 0.5;
+        int heavyItemBytes = 24000;
+        int itemsPerLoad = 3;
+        int itemPacketCostBytes = 256;
+        int linkBytesPerTick = 8192;
+        int basePingMs = 40;
+        double walkSpeed = 0.2;
+        int packetsPerTick = 400;
+        int playerPacketsPerTick = 50;
+        int bytesPerTick = 16384;
+        long seed = 42L;
+        String csv;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--players": options.players = Integer.parseInt(value); break;
+                    case "--join-ticks": options.joinTicks = Integer.parseInt(value); break;
+                    case "--ticks": options.ticks = Integer.parseInt(value); break;
+                    case "--view-distance": options.viewDistance = Integer.parseInt(value); break;
+                    case "--blocks-per-chunk": options.blocksPerChunk = Integer.parseInt(value); break;
+                    case "--spawn-radius": options.spawnRadius = Integer.parseInt(value); break;
+                    case "--open-chance": options.openChance = Double.parseDouble(value); break;
+                    case "--heavy-share": options.heavyShulkerShare = Double.parseDouble(value); break;
+                    case "--heavy-item-bytes": options.heavyItemBytes = Integer.parseInt(value); break;
+                    case "--items-per-load": options.itemsPerLoad = Integer.parseInt(value); break;
+                    case "--item-packet-cost": options.itemPacketCostBytes = Integer.parseInt(value); break;
+                    case "--link-bytes-per-tick": options.linkBytesPerTick = Integer.parseInt(value); break;
+                    case "--base-ping": options.basePingMs = Integer.parseInt(value); break;
+                    case "--walk-speed": options.walkSpeed = Double.parseDouble(value); break;
+                    case "--packets-per-tick": options.packetsPerTick = Integer.parseInt(value); break;
+                    case "--player-packets-per-tick": options.playerPacketsPerTick = Integer.parseInt(value); break;
+                    case "--bytes-per-tick": options.bytesPerTick = Integer.parseInt(value); break;
+                    case "--seed": options.seed = Long.parseLong(value); break;
+                    case "--csv": options.csv = value; break;
+                    default: throw new IllegalArgumentException("未知参数: " + args[i]);
+                }
+            }
+            return options;
+        }
+    }
+
+    // 整个模拟的汇总结果
+    static final class Result {
+        long packets;
+        long bytes;
+        long jobsCreated;
+        int peakQueuedJobs;
+        int peakQueuedPlayers;
+        long peakHiddenBlocks;
+        long peakDelayedItems;
+        int drainedAtTick = -1;
+        long[] tickNanos;
+    }
+
+    JoinStormSimulator(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+        this.scheduler = new PacketScheduler(options.packetsPerTick, options.playerPacketsPerTick);
+        this.pacer = new AdaptivePacer(true, options.playerPacketsPerTick, 5, 200, 5,
+                262144L * PacketHandler.PACING_WINDOW_TICKS / 20L);
+        scheduler.setPlayerBudgetFunction(pacer::budgetFor);
+        this.byteBudget = new ByteBudget(options.bytesPerTick, 4, 512);
+        byteBudget.setSpeedFactor(pacer::speedFactor);
+        // 模拟的潜影盒没有实际内容，重潜影盒按--heavy-item-bytes计算字节数
+        this.windowItemsFilter = new WindowItemsFilter(new ShulkerCache(4096, 8388608L,
+                        item -> item.getType() == Material.RED_SHULKER_BOX ? options.heavyItemBytes : itemWeightEstimator.weigh(item)),
+                item -> item.getType() == Material.RED_SHULKER_BOX,
+                item -> new ItemStack(item.getType()));
+
+        for (int i = 0; i < options.players; i++) {
+            UUID id = new UUID(options.seed, i);
+            int joinTick = options.joinTicks <= 1 ? 0 : random.nextInt(options.joinTicks);
+            int openTick = random.nextDouble() < options.openChance ? joinTick + 20 + random.nextInt(200) : -1;
+            SimPlayer player = new SimPlayer(id, joinTick, openTick);
+            player.x = random.nextInt(options.spawnRadius * 2 + 1) - options.spawnRadius + 0.5;
+            player.y = 64.0;
+            player.z = random.nextInt(options.spawnRadius * 2 + 1) - options.spawnRadius + 0.5;
+            player.heading = random.nextDouble() * Math.PI * 2;
+            players.add(player);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        FakeServer.install();
+        Options options = Options.parse(args);
+        JoinStormSimulator simulator = new JoinStormSimulator(options);
+        PrintWriter csv = options.csv == null ? null
+                : new PrintWriter(Files.newBufferedWriter(Paths.get(options.csv), StandardCharsets.UTF_8));
+        try {
+            Result result = simulator.run(csv);
+            simulator.printSummary(result);
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+
+    Result run(PrintWriter csv) {
+        Result result = new Result();
+        result.tickNanos = new long[options.ticks];
+        if (csv != null) {
+            csv.println("tick,online,packets,bytes,jobs_created,queued_jobs,queued_players,hidden_blocks,delayed_items,avg_budget,wall_nanos");
+        }
+
+        for (int tick = 0; tick < options.ticks; tick++) {
+            tickPackets = 0;
+            tickBytes = 0;
+            tickJobsCreated = 0;
+            long start = System.nanoTime();
+
+            for (SimPlayer player : players) {
+                if (!player.online && tick == player.joinTick) {
+                    join(player);
+                }
+                if (!player.online) continue;
+                if (tick == player.openTick) {
+                    openContainer(player);
+                }
+                move(player);
+                if (player.revealDirty) {
+                    player.revealDirty = false;
+                    checkAndShowNearbyBlocks(player);
+                }
+            }
+
+            scheduler.tick();
+
+            int budgetSum = 0;
+            int online = 0;
+            for (SimPlayer player : players) {
+                if (!player.online) continue;
+                online++;
+                budgetSum += pacer.budgetFor(player.id);
+                player.inFlightBytes = Math.max(0L, player.inFlightBytes - options.linkBytesPerTick);
+                if ((tick + 1) % PacketHandler.PACING_WINDOW_TICKS == 0) {
+                    pacer.update(player.id, ping(player), scheduler.getQueuedJobCount(player.id));
+                }
+            }
+            long wall = System.nanoTime() - start;
+            result.tickNanos[tick] = wall;
+
+            int queuedJobs = scheduler.getQueuedJobCount();
+            int queuedPlayers = scheduler.getQueuedPlayerCount();
+            long hiddenBlocks = 0;
+            long delayedItems = 0;
+            for (SimPlayer player : players) {
+                hiddenBlocks += player.hidden.size();
+                delayedItems += player.delayedItems.size();
+            }
+            result.packets += tickPackets;
+            result.bytes += tickBytes;
+            result.jobsCreated += tickJobsCreated;
+            result.peakQueuedJobs = Math.max(result.peakQueuedJobs, queuedJobs);
+            result.peakQueuedPlayers = Math.max(result.peakQueuedPlayers, queuedPlayers);
+            result.peakHiddenBlocks = Math.max(result.peakHiddenBlocks, hiddenBlocks);
+            result.peakDelayedItems = Math.max(result.peakDelayedItems, delayedItems);
+            if (queuedJobs == 0 && online == players.size()) {
+                if (result.drainedAtTick < 0) result.drainedAtTick = tick;
+            } else {
+                result.drainedAtTick = -1;
+            }
+
+            if (csv != null) {
+                csv.println(tick + "," + online + "," + tickPackets + "," + tickBytes + "," + tickJobsCreated + ","
+                        + queuedJobs + "," + queuedPlayers + "," + hiddenBlocks + "," + delayedItems + ","
+                        + (online == 0 ? 0 : budgetSum / online) + "," + wall);
+            }
+        }
+        return result;
+    }
+
+    // 玩家加入：收到视距内的全部区块，远处的受保护方块进入隐藏队列
+    private void join(SimPlayer player) {
+        player.online = true;
+        int centerX = (int) Math.floor(player.x) >> 4;
+        int centerZ = (int) Math.floor(player.z) >> 4;
+        int radius = options.viewDistance;
+        for (int cx = centerX - radius; cx <= centerX + radius; cx++) {
+            for (int cz = centerZ - radius; cz <= centerZ + radius; cz++) {
+                send(player, CHUNK_PACKET_BYTES);
+                ProtectedBlockIndex.ChunkEntry entry = chunk(cx, cz);
+                List<VisibilityRules.HiddenCandidate> candidates = rules.selectHidden(entry, player.x, player.y, player.z);
+                if (candidates.isEmpty()) continue;
+                submit(player, PacketScheduler.Lane.HIDE, PacketScheduler.forEach(candidates, candidate -> {
+                    send(player, RevealJob.BLOCK_CHANGE_BYTES);
+                    BlockPosition position = candidate.position;
+                    player.hidden.put(BlockKeys.pack(position.getX(), position.getY(), position.getZ()), candidate.material);
+                }));
+            }
+        }
+        player.revealDirty = true;
+    }
+
+    // 玩家随机行走，跨越区块段或移动超过阈值时重新检查附近的隐藏方块（与RevealScheduler相同的条件）
+    private void move(SimPlayer player) {
+        if (random.nextInt(40) == 0) {
+            player.heading += (random.nextDouble() - 0.5) * Math.PI;
+        }
+        player.x += Math.cos(player.heading) * options.walkSpeed;
+        player.z += Math.sin(player.heading) * options.walkSpeed;
+        long section = BlockKeys.pack((int) Math.floor(player.x) >> 4, (int) Math.floor(player.y) >> 4, (int) Math.floor(player.z) >> 4);
+        double dx = player.x - player.revealX;
+        double dz = player.z - player.revealZ;
+        if (section != player.revealSection || dx * dx + dz * dz > 16.0) {
+            player.revealSection = section;
+            player.revealX = player.x;
+            player.revealZ = player.z;
+            player.revealDirty = true;
+        }
+    }
+
+    // 与PacketHandler.checkAndShowNearbyBlocks相同：加入玩家的优先队列，队列空闲时提交新的显示任务
+    private void checkAndShowNearbyBlocks(SimPlayer player) {
+        List<BlockPosition> toShow = rules.selectVisible(player.hidden, player.x, player.y, player.z, rules.getMaxDistance());
+        if (toShow.isEmpty()) return;
+        long[] keys = new long[toShow.size()];
+        for (int i = 0; i < keys.length; i++) {
+            BlockPosition position = toShow.get(i);
+            keys[i] = BlockKeys.pack(position.getX(), position.getY(), position.getZ());
+        }
+        if (!player.revealQueue.addAll(keys)) return;
+        submit(player, PacketScheduler.Lane.REVEAL, new PriorityRevealJob(player.id, player.revealQueue,
+                queue -> queue.updateView(player.x, player.y + 1.62, player.z, Math.cos(player.heading), 0, Math.sin(player.heading)),
+                byteBudget, new RevealJob.Sink() {
+                    @Override
+                    public int weigh(long blockKey) {
+                        return RevealJob.SECTION_UPDATE_ENTRY_BYTES;
+                    }
+
+                    @Override
+                    public void reveal(List<Long> section) {
+                        int revealed = 0;
+                        for (long key : section) {
+                            if (player.hidden.remove(key) != null) revealed++;
+                        }
+                        if (revealed > 0) {
+                            send(player, RevealJob.sectionPacketBytes(revealed));
+                        }
+                    }
+                }));
+    }
+
+    // 打开装满潜影盒的箱子：非空潜影盒替换为占位物品，之后由DelayedSlotJob按字节额度发送
+    private void openContainer(SimPlayer player) {
+        List<ItemStack> items = new ArrayList<>(63);
+        for (int slot = 0; slot < 63; slot++) {
+            if (slot < 27) {
+                items.add(new ItemStack(random.nextDouble() < options.heavyShulkerShare
+                        ? Material.RED_SHULKER_BOX : Material.SHULKER_BOX));
+            } else {
+                items.add(new ItemStack(Material.STONE, 1 + random.nextInt(64)));
+            }
+        }
+        player.delayedItems = new ArrayList<>(windowItemsFilter.filter(items));
+        int[] weights = new int[items.size()];
+        long windowBytes = WindowSession.WINDOW_ITEMS_HEADER_BYTES;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = itemWeightEstimator.weigh(items.get(i));
+            windowBytes += weights[i];
+        }
+        send(player, (int) windowBytes);
+        if (player.delayedItems.isEmpty()) return;
+
+        WindowSession session = new WindowSession(1, true);
+        session.setSnapshot(items, null, weights);
+        DelayedSlotJob job = new DelayedSlotJob(player.id, session, player.delayedItems, new DelayedSlotJob.Sender() {
+            @Override
+            public boolean isOnline() {
+                return player.online;
+            }
+
+            @Override
+            public boolean sendSlot(PacketHandler.DelayedItem delayedItem) {
+                send(player, WindowSession.SET_SLOT_HEADER_BYTES + delayedItem.weight);
+                session.updateSnapshot(delayedItem.slot, delayedItem.item, delayedItem.weight);
+                session.markDelivered(delayedItem.slot);
+                return true;
+            }
+
+            @Override
+            public boolean sendCoalesced(List<PacketHandler.DelayedItem> batch, long batchBytes) {
+                long bytes = Math.max(batchBytes, session.estimateCoalescedBytes(batch, batchBytes));
+                send(player, (int) Math.min(Integer.MAX_VALUE, bytes));
+                for (PacketHandler.DelayedItem delayedItem : batch) {
+                    session.updateSnapshot(delayedItem.slot, delayedItem.item, delayedItem.weight);
+                    session.markDelivered(delayedItem.slot);
+                }
+                return true;
+            }
+        }, byteBudget, pacer, 1L, options.itemsPerLoad, options.itemPacketCostBytes > 0, options.itemPacketCostBytes);
+        if (job.start()) {
+            submit(player, PacketScheduler.Lane.SLOT, job);
+        }
+    }
+
+    private void submit(SimPlayer player, PacketScheduler.Lane lane, PacketJob job) {
+        tickJobsCreated++;
+        scheduler.submit(player.id, lane, job);
+    }
+
+    private void send(SimPlayer player, int bytes) {
+        tickPackets++;
+        tickBytes += bytes;
+        player.inFlightBytes += bytes;
+        pacer.recordBytes(player.id, bytes);
+    }
+
+    // 链路中积压的数据越多延迟越高
+    private int ping(SimPlayer player) {
+        return options.basePingMs + (int) (player.inFlightBytes * 50L / Math.max(1, options.linkBytesPerTick));
+    }
+
+    // 根据区块坐标确定性地生成区块中的受保护方块
+    private ProtectedBlockIndex.ChunkEntry chunk(int cx, int cz) {
+        long key = BlockKeys.chunkKey(cx, cz);
+        ProtectedBlockIndex.ChunkEntry entry = chunks.get(key);
+        if (entry != null) return entry;
+        Random chunkRandom = new Random(options.seed ^ (key * 0x9E3779B97F4A7C15L));
+        long[] positions = new long[options.blocksPerChunk];
+        Material[] types = new Material[options.blocksPerChunk];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = BlockKeys.pack((cx << 4) + chunkRandom.nextInt(16), 40 + chunkRandom.nextInt(48),
+                    (cz << 4) + chunkRandom.nextInt(16));
+            types[i] = PROTECTED_TYPES[chunkRandom.nextInt(PROTECTED_TYPES.length)];
+        }
+        entry = new ProtectedBlockIndex.ChunkEntry(positions, types);
+        chunks.put(key, entry);
+        return entry;
+    }
+
+    private void printSummary(Result result) {
+        long[] sorted = result.tickNanos.clone();
+        Arrays.sort(sorted);
+        System.out.println("=== 登录高峰模拟 ===");
+        System.out.println("玩家: " + options.players + "，在 " + options.joinTicks + " tick内加入，模拟 " + options.ticks + " tick");
+        System.out.println("数据包总数: " + result.packets + "，总字节数: " + result.bytes);
+        System.out.println("新建调度任务: " + result.jobsCreated);
+        System.out.println("队列峰值: " + result.peakQueuedJobs + " 个任务 / " + result.peakQueuedPlayers + " 个玩家");
+        System.out.println("隐藏方块峰值: " + result.peakHiddenBlocks + "，延迟物品峰值: " + result.peakDelayedItems);
+        System.out.println("队列清空于: " + (result.drainedAtTick < 0
+                ? "未清空（结束时剩余 " + scheduler.getQueuedJobCount() + " 个任务）" : "第 " + result.drainedAtTick + " tick"));
+        System.out.println("每tick耗时: p50 " + micros(percentile(sorted, 0.5)) + "μs, p99 " + micros(percentile(sorted, 0.99))
+                + "μs, 最大 " + micros(sorted.length == 0 ? 0 : sorted[sorted.length - 1]) + "μs");
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * quantile) - 1);
+        return sorted[Math.max(0, index)];
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,59 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.wrappers.BlockPosition;
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * checkAndShowNearbyBlocks的查询部分：从玩家的隐藏方块表中选出显示范围内的方块
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearbyRevealBenchmark {
+    // 玩家隐藏方块表中的方块数量
+    @Param({"1000", "100000"})
+    public int hiddenBlocks;
+
+    // 隐藏方块分布的水平范围（格）
+    @Param({"128", "512"})
+    public int spread;
+
+    private VisibilityRules rules;
+    private HiddenBlockStore store;
+
+    @Setup
+    public void setup() {
+        rules = new VisibilityRules(16);
+        store = new HiddenBlockStore();
+        Random random = new Random(42);
+        while (store.size() < hiddenBlocks) {
+            int x = random.nextInt(spread) - spread / 2;
+            int y = 40 + random.nextInt(48);
+            int z = random.nextInt(spread) - spread / 2;
+            store.put(BlockKeys.pack(x, y, z), Material.CHEST);
+        }
+    }
+
+    @Benchmark
+    public List<BlockPosition> selectVisible() {
+        return rules.selectVisible(store, 0.5, 64.0, 0.5, rules.getMaxDistance());
+    }
+}
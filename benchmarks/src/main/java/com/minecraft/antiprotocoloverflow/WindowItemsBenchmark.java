@@ -0,0 +1,89 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * handleWindowItemsPacket的过滤部分：找出非空潜影盒并替换为占位物品
+ * 使用插件的WindowItemsFilter.hasContents、emptyPlaceholder和ItemWeightEstimator，
+ * 潜影盒由FakeServer构建，带名称和盒内物品，判断内容、复制占位物品和估算字节数都经过元数据。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowItemsBenchmark {
+    // 窗口槽位数：箱子27、大箱子54，均另加36个玩家背包槽位
+    @Param({"63", "90"})
+    public int slots;
+
+    // 槽位中潜影盒所占的比例
+    @Param({"0.0", "0.5", "1.0"})
+    public double shulkerShare;
+
+    private static final Material[] CONTENT_TYPES = {
+            Material.DIAMOND, Material.IRON_INGOT, Material.STONE, Material.OAK_LOG, Material.REDSTONE, Material.COBBLESTONE
+    };
+
+    private ItemStack[] template;
+    private WindowItemsFilter filter;
+
+    @Setup
+    public void setup() {
+        FakeServer.install();
+        ShulkerCache cache = new ShulkerCache(4096, 8388608L, new ItemWeightEstimator()::weigh);
+        filter = new WindowItemsFilter(cache, WindowItemsFilter::hasContents, WindowItemsFilter::emptyPlaceholder);
+
+        Random random = new Random(42);
+        template = new ItemStack[slots];
+        for (int i = 0; i < slots; i++) {
+            if (random.nextDouble() < shulkerShare) {
+                template[i] = shulkerBox(random);
+            } else if (random.nextInt(4) == 0) {
+                template[i] = new ItemStack(Material.AIR);
+            } else {
+                template[i] = new ItemStack(Material.STONE, 1 + random.nextInt(64));
+            }
+        }
+    }
+
+    // 一半装有物品（各不相同），四分之一是带名称的空盒，四分之一是普通空盒
+    private static ItemStack shulkerBox(Random random) {
+        int kind = random.nextInt(4);
+        if (kind == 3) return new ItemStack(Material.WHITE_SHULKER_BOX);
+        if (kind == 2) return FakeServer.shulkerBox(Material.BLUE_SHULKER_BOX, "空盒");
+        ItemStack[] contents = new ItemStack[1 + random.nextInt(27)];
+        for (int slot = 0; slot < contents.length; slot++) {
+            contents[slot] = new ItemStack(CONTENT_TYPES[random.nextInt(CONTENT_TYPES.length)], 1 + random.nextInt(64));
+        }
+        return FakeServer.shulkerBox(Material.RED_SHULKER_BOX, "仓库 #" + random.nextInt(100), contents);
+    }
+
+    @Benchmark
+    public List<PacketHandler.DelayedItem> filterWindowItems() {
+        // 过滤会修改物品列表，每次使用新的副本
+        List<ItemStack> items = new ArrayList<>(slots);
+        for (ItemStack item : template) {
+            items.add(item);
+        }
+        return filter.filter(items);
+    }
+}
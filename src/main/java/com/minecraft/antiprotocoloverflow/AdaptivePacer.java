@@ -0,0 +1,112 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应发包速度控制
+ * 类似拥塞控制的加性增、乘性减：每个评估周期根据玩家的延迟变化、积压任务数量和最近发送的字节数，
+ * 在配置的上下限之间调整该玩家每tick的发包预算。网络良好的玩家更快完成加载，网络较差的玩家自动降速。
+ *
+ * 本类不依赖Bukkit，延迟和积压数量由调用方在评估时传入。
+ */
+public class AdaptivePacer {
+    private final Map<UUID, PlayerPace> paces = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+    private volatile int baseBudget;
+    private volatile int minBudget;
+    private volatile int maxBudget;
+    private volatile int additiveStep;
+    private volatile long maxBytesPerWindow;
+
+    // 单个玩家的速度状态
+    private static final class PlayerPace {
+        volatile int budget;
+        // 观察到的最低延迟，作为网络空闲时的基准
+        int baselinePing = -1;
+        final AtomicLong bytesInWindow = new AtomicLong();
+
+        PlayerPace(int budget) {
+            this.budget = budget;
+        }
+    }
+
+    public AdaptivePacer(boolean enabled, int baseBudget, int minBudget, int maxBudget, int additiveStep, long maxBytesPerWindow) {
+        configure(enabled, baseBudget, minBudget, maxBudget, additiveStep, maxBytesPerWindow);
+    }
+
+    public void configure(boolean enabled, int baseBudget, int minBudget, int maxBudget, int additiveStep, long maxBytesPerWindow) {
+        this.minBudget = Math.max(1, minBudget);
+        this.maxBudget = Math.max(this.minBudget, maxBudget);
+        this.baseBudget = Math.max(this.minBudget, Math.min(this.maxBudget, baseBudget));
+        this.additiveStep = Math.max(1, additiveStep);
+        this.maxBytesPerWindow = Math.max(1L, maxBytesPerWindow);
+        this.enabled = enabled;
+        if (!enabled) {
+            paces.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // 记录发送给玩家的字节数，可在任意线程调用
+    public void recordBytes(UUID playerId, int bytes) {
+        if (!enabled) return;
+        pace(playerId).bytesInWindow.addAndGet(bytes);
+    }
+
+    // 玩家当前每tick的发包预算
+    public int budgetFor(UUID playerId) {
+        if (!enabled) return baseBudget;
+        PlayerPace pace = paces.get(playerId);
+        return pace == null ? baseBudget : pace.budget;
+    }
+
+    // 当前速度相对基准速度的倍数，用于缩放固定的加载间隔
+    public double speedFactor(UUID playerId) {
+        return (double) budgetFor(playerId) / baseBudget;
+    }
+
+    /**
+     * 一个评估周期结束时调用
+     * @param pingMs 玩家当前延迟
+     * @param backlog 玩家在发包调度器中积压的任务数量
+     */
+    public void update(UUID playerId, int pingMs, int backlog) {
+        if (!enabled) return;
+        PlayerPace pace = pace(playerId);
+        long bytes = pace.bytesInWindow.getAndSet(0);
+
+        // 基准延迟取观察到的最小值，并缓慢上浮以适应网络环境变化
+        if (pace.baselinePing < 0 || pingMs < pace.baselinePing) {
+            pace.baselinePing = pingMs;
+        } else {
+            pace.baselinePing++;
+        }
+
+        // 延迟明显高于基准（排队延迟）或近期发送量超过上限时视为拥塞
+        boolean congested = pingMs > pace.baselinePing * 3 / 2 + 50 || bytes > maxBytesPerWindow;
+        if (congested) {
+            pace.budget = Math.max(minBudget, pace.budget / 2);
+        } else if (backlog > 0) {
+            // 只在确实有积压时加速，避免空闲玩家的预算无限上涨
+            pace.budget = Math.min(maxBudget, pace.budget + additiveStep);
+        }
+    }
+
+    public void removePlayer(UUID playerId) {
+        paces.remove(playerId);
+    }
+
+    public void clear() {
+        paces.clear();
+    }
+
+    private PlayerPace pace(UUID playerId) {
+        return paces.computeIfAbsent(playerId, k -> new PlayerPace(baseBudget));
+    }
+}
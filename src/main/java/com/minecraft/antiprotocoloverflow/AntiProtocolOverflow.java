@@ -21,13 +21,17 @@ import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.BlockStateMeta;
 import org.bukkit.block.ShulkerBox;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -44,6 +48,8 @@ public class AntiProtocolOverflow extends JavaPlugin implements Listener {
     
     // 数据包处理器
     private PacketHandler packetHandler;
+    // Prometheus指标导出，未启用时为null
+    private MetricsExporter metricsExporter;
     
     // 用于跟踪玩家的加载状态
     private final Map<UUID, Boolean> isLoadingInventory = new ConcurrentHashMap<>();
@@ -101,6 +107,8 @@ public class AntiProtocolOverflow extends JavaPlugin implements Listener {
             return;
         }
         
+        updateMetricsExporter();
+        
         logger.info("AntiProtocolOverflow 插件已启用，使用ProtocolLib数据包层处理");
         logger.info("物品处理已迁移到数据包层面，避免物品丢失风险");
         logger.info("容器和背包物品现在通过WINDOW_ITEMS和SET_SLOT数据包进行延迟加载");
@@ -108,6 +116,11 @@ public class AntiProtocolOverflow extends JavaPlugin implements Listener {
 
     @Override
     public void onDisable() {
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+        
         // 清理数据包处理器
         if (packetHandler != null) {
             packetHandler.clearAllData();
@@ -260,6 +273,47 @@ public class AntiProtocolOverflow extends JavaPlugin implements Listener {
                                       logLoadEvents, enableProtection, slowInventoryLoad, slowBlockLoad);
             logger.info("已更新PacketHandler中的物品加载配置");
         }
+        updateMetricsExporter();
+    }
+    
+    /**
+     * 按配置启动、重启或停止指标导出服务
+     */
+    private void updateMetricsExporter() {
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+        if (packetHandler == null || !getConfig().getBoolean("metrics.enabled", false)) return;
+        
+        metricsExporter = new MetricsExporter(this, packetHandler.getPacketStats(), this::collectMetrics);
+        if (!metricsExporter.start(
+                getConfig().getString("metrics.host", "127.0.0.1"),
+                getConfig().getInt("metrics.port", 9464),
+                getConfig().getString("metrics.path", "/metrics"),
+                getConfig().getLong("metrics.sample-interval-ticks", 20L))) {
+            metricsExporter = null;
+        }
+    }
+    
+    /**
+     * 在主线程采样指标导出所需的瞬时值
+     */
+    private void collectMetrics(List<MetricsExporter.Sample> samples) {
+        if (packetHandler != null) {
+            packetHandler.collectMetrics(samples);
+        }
+        int loadingInventories = 0;
+        for (Boolean loading : isLoadingInventory.values()) {
+            if (Boolean.TRUE.equals(loading)) loadingInventories++;
+        }
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_loading_inventories", "背包正在加载的玩家数量", loadingInventories));
+        int pendingTasks = 0;
+        for (BukkitTask task : Bukkit.getScheduler().getPendingTasks()) {
+            if (task.getOwner() == this) pendingTasks++;
+        }
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_bukkit_tasks", "本插件在Bukkit调度器中的任务数量", pendingTasks));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_online_players", "在线玩家数量", Bukkit.getOnlinePlayers().size()));
     }
 
     @EventHandler
@@ -650,6 +704,7 @@ public class AntiProtocolOverflow extends JavaPlugin implements Listener {
                 sender.sendMessage(ChatColor.YELLOW + "/antiprotocol reload - 重载插件配置");
                 sender.sendMessage(ChatColor.YELLOW + "/antiprotocol version - 查看插件版本");
                 sender.sendMessage(ChatColor.YELLOW + "/antiprotocol status - 查看插件状态");
+                sender.sendMessage(ChatColor.YELLOW + "/antiprotocol stats [玩家|dump|reset] - 查看或导出数据包统计");
                 return true;
             }
             
@@ -676,11 +731,101 @@ public class AntiProtocolOverflow extends JavaPlugin implements Listener {
                 sender.sendMessage(ChatColor.YELLOW + "方块加载延迟: " + blockLoadDelay + "ms");
                 sender.sendMessage(ChatColor.YELLOW + "初始区块半径: " + initialChunkRadius);
                 sender.sendMessage(ChatColor.YELLOW + "受保护方块类型数: " + protectedBlockTypes.size());
+                if (packetHandler != null) {
+                    ShulkerCache shulkerCache = packetHandler.getShulkerCache();
+                    sender.sendMessage(ChatColor.YELLOW + "潜影盒缓存: " + shulkerCache.size() + "/" + shulkerCache.getMaxSize()
+                            + " (" + shulkerCache.getBytes() / 1024 + "/" + shulkerCache.getMaxBytes() / 1024 + " KB)"
+                            + " 命中率: " + String.format("%.1f%%", shulkerCache.getHitRate() * 100)
+                            + " (命中 " + shulkerCache.getHits() + ", 未命中 " + shulkerCache.getMisses()
+                            + ", 淘汰 " + shulkerCache.getEvictions() + ")");
+                    HiddenStateLimiter limiter = packetHandler.getHiddenStateLimiter();
+                    sender.sendMessage(ChatColor.YELLOW + "隐藏方块记录: " + limiter.getTrackedBlocks()
+                            + " 约 " + limiter.getEstimatedBytes() / 1024 + " KB"
+                            + " (已淘汰区块 " + limiter.getEvictedChunkCount()
+                            + ", 累计淘汰记录 " + limiter.getEvictedBlocksTotal() + ")");
+                }
+                return true;
+            }
+            
+            if (args[0].equalsIgnoreCase("stats")) {
+                if (packetHandler == null) {
+                    sender.sendMessage(ChatColor.RED + "数据包处理器未启用");
+                    return true;
+                }
+                showStats(sender, args.length > 1 ? args[1] : null);
                 return true;
             }
         }
         return false;
     }
     
+    /**
+     * 显示或导出数据包统计
+     */
+    private void showStats(CommandSender sender, String arg) {
+        PacketStats stats = packetHandler.getPacketStats();
+        if (arg != null && arg.equalsIgnoreCase("reset")) {
+            stats.reset();
+            sender.sendMessage(ChatColor.GREEN + "数据包统计已清空");
+            return;
+        }
+        if (arg != null && arg.equalsIgnoreCase("dump")) {
+            try {
+                File file = packetHandler.dumpStats();
+                sender.sendMessage(ChatColor.GREEN + "数据包统计已导出到 " + file.getPath());
+            } catch (IOException e) {
+                sender.sendMessage(ChatColor.RED + "导出数据包统计失败: " + e.getMessage());
+                logger.warning("导出数据包统计失败: " + e.getMessage());
+            }
+            return;
+        }
+        
+        if (!stats.isEnabled()) {
+            sender.sendMessage(ChatColor.RED + "数据包统计未启用（stats.enabled）");
+        }
+        long seconds = Math.max(1L, (System.currentTimeMillis() - stats.getResetAt()) / 1000L);
+        
+        if (arg != null) {
+            Player target = Bukkit.getPlayerExact(arg);
+            if (target == null) {
+                sender.sendMessage(ChatColor.RED + "玩家不在线: " + arg);
+                return;
+            }
+            PacketStats.PlayerStats playerStats = stats.getPlayerStats(target.getUniqueId());
+            sender.sendMessage(ChatColor.GREEN + "=== " + target.getName() + " 的数据包统计（" + seconds + " 秒）===");
+            if (playerStats != null) {
+                sendCounters(sender, playerStats.getCounters(), seconds);
+                sender.sendMessage(ChatColor.YELLOW + "延迟发送: 物品 " + playerStats.getDeferredItemBytes()
+                        + " 字节, 方块实体 " + playerStats.getDeferredBlockEntityBytes() + " 字节");
+            }
+            sender.sendMessage(ChatColor.YELLOW + "队列深度: " + stats.getGauges(target.getUniqueId()));
+            return;
+        }
+        
+        sender.sendMessage(ChatColor.GREEN + "=== 数据包统计（" + seconds + " 秒）===");
+        sendCounters(sender, stats.getGlobalCounters(), seconds);
+        sender.sendMessage(ChatColor.YELLOW + "延迟发送: 物品 " + stats.getDeferredItemBytes()
+                + " 字节, 方块实体 " + stats.getDeferredBlockEntityBytes() + " 字节");
+        sender.sendMessage(ChatColor.YELLOW + "队列深度: " + stats.getGauges());
+        for (Map.Entry<String, PacketStats.Histogram> entry : stats.getTimings().entrySet()) {
+            PacketStats.Histogram histogram = entry.getValue();
+            long count = histogram.getCount();
+            sender.sendMessage(ChatColor.GRAY + entry.getKey() + " 耗时: 平均 "
+                    + (count == 0 ? 0 : histogram.getSumNanos() / count / 1000) + "μs"
+                    + ", p50 " + histogram.percentile(0.5) / 1000 + "μs"
+                    + ", p99 " + histogram.percentile(0.99) / 1000 + "μs"
+                    + ", 最大 " + histogram.getMaxNanos() / 1000 + "μs");
+        }
+    }
+    
+    private void sendCounters(CommandSender sender, Map<String, PacketStats.Counters> counters, long seconds) {
+        for (Map.Entry<String, PacketStats.Counters> entry : counters.entrySet()) {
+            PacketStats.Counters value = entry.getValue();
+            sender.sendMessage(ChatColor.YELLOW + entry.getKey() + ": 拦截 " + value.getIntercepted()
+                    + " (" + value.getIntercepted() / seconds + "/s), 取消 " + value.getCancelled()
+                    + ", 改写 " + value.getRewritten());
+        }
+    }
+    
 
 }
\ No newline at end of file
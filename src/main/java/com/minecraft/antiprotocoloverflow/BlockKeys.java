@@ -0,0 +1,51 @@
+package com.minecraft.antiprotocoloverflow;
+
+/**
+ * 方块坐标与区块坐标的long打包工具
+ * 方块坐标布局与原版BlockPos.asLong一致：X 26位 | Z 26位 | Y 12位
+ */
+final class BlockKeys {
+
+    private BlockKeys() {
+    }
+
+    // 将方块坐标打包为long
+    static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    static int unpackY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    static int unpackZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+    // 将区块坐标打包为long
+    static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    // 获取方块坐标所在区块的键
+    static long chunkKeyOf(long blockKey) {
+        return chunkKey(unpackX(blockKey) >> 4, unpackZ(blockKey) >> 4);
+    }
+
+    // 获取方块坐标所在区块段(16x16x16)的键，段坐标同样按X|Z|Y布局打包
+    static long sectionKeyOf(long blockKey) {
+        return pack(unpackX(blockKey) >> 4, unpackY(blockKey) >> 4, unpackZ(blockKey) >> 4);
+    }
+
+    static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+}
@@ -0,0 +1,224 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import org.bukkit.Material;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * 方块状态查找表
+ * 启动和重载时遍历服务端全部方块状态ID，预先计算每个状态对应的Material和是否受保护，
+ * 热路径上只需取得状态ID并读一次数组，不再解析字符串，也不分配对象。
+ *
+ * 状态ID通过反射查找NMS Block类中的静态getId(IBlockData)/stateById(int)方法获取（按签名匹配，不依赖混淆后的方法名）。
+ * 找不到时退回到WrappedBlockData.getType()加按Material序号索引的数组。
+ */
+public class BlockStateTable {
+    private static final int MAX_STATES = 1 << 20;
+
+    private final Logger logger;
+    private volatile Tables tables = Tables.EMPTY;
+    // (Object)int，返回方块状态的ID
+    private MethodHandle idLookup;
+    // (int)Object，根据ID返回方块状态
+    private MethodHandle stateLookup;
+    private boolean lookupResolved;
+
+    // 一次构建的全部表，整体替换以便在数据包线程中无锁读取
+    private static final class Tables {
+        static final Tables EMPTY = new Tables(new Material[0], new boolean[0], new boolean[Material.values().length]);
+
+        final Material[] materialById;
+        final boolean[] protectedById;
+        final boolean[] protectedByOrdinal;
+
+        Tables(Material[] materialById, boolean[] protectedById, boolean[] protectedByOrdinal) {
+            this.materialById = materialById;
+            this.protectedById = protectedById;
+            this.protectedByOrdinal = protectedByOrdinal;
+        }
+    }
+
+    public BlockStateTable(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * 使用给定的状态ID到Material的映射构建查找表，不查找服务端方法
+     * 用于基准测试等没有服务端的环境
+     */
+    static BlockStateTable of(Logger logger, Material[] materialById, Set<Material> protectedTypes) {
+        BlockStateTable table = new BlockStateTable(logger);
+        table.lookupResolved = true;
+        boolean[] protectedByOrdinal = protectedByOrdinal(protectedTypes);
+        table.tables = new Tables(materialById.clone(), protectedById(materialById, protectedByOrdinal), protectedByOrdinal);
+        return table;
+    }
+
+    private static boolean[] protectedByOrdinal(Set<Material> protectedTypes) {
+        boolean[] protectedByOrdinal = new boolean[Material.values().length];
+        for (Material type : protectedTypes) {
+            protectedByOrdinal[type.ordinal()] = true;
+        }
+        return protectedByOrdinal;
+    }
+
+    private static boolean[] protectedById(Material[] materialById, boolean[] protectedByOrdinal) {
+        boolean[] protectedById = new boolean[materialById.length];
+        for (int id = 0; id < materialById.length; id++) {
+            Material type = materialById[id];
+            protectedById[id] = type != null && protectedByOrdinal[type.ordinal()];
+        }
+        return protectedById;
+    }
+
+    // 构建查找表，必须在主线程调用
+    public synchronized void rebuild(Set<Material> protectedTypes) {
+        boolean[] protectedByOrdinal = protectedByOrdinal(protectedTypes);
+
+        if (!lookupResolved) {
+            resolveLookup();
+            lookupResolved = true;
+        }
+
+        Material[] materialById = new Material[0];
+        boolean[] protectedById = new boolean[0];
+        if (idLookup != null) {
+            try {
+                List<Material> materials = new ArrayList<>();
+                for (int id = 0; id < MAX_STATES; id++) {
+                    // 超出范围时stateById返回null或默认的空气状态，二者都无法还原为同一个ID
+                    Object state = stateLookup.invoke(id);
+                    if (state == null || (int) idLookup.invokeExact(state) != id) break;
+                    materials.add(WrappedBlockData.fromHandle(state).getType());
+                }
+                materialById = materials.toArray(new Material[0]);
+                protectedById = protectedById(materialById, protectedByOrdinal);
+                logger.fine("已构建方块状态查找表，共 " + materialById.length + " 个状态");
+            } catch (Throwable e) {
+                logger.warning("构建方块状态查找表失败，将使用较慢的方块类型查询: " + e.getMessage());
+                idLookup = null;
+                materialById = new Material[0];
+                protectedById = new boolean[0];
+            }
+        }
+        tables = new Tables(materialById, protectedById, protectedByOrdinal);
+    }
+
+    // 按签名查找Block中的静态getId(IBlockData)和stateById(int)，并用前几个ID验证二者互为逆运算
+    private void resolveLookup() {
+        try {
+            Class<?> blockClass = MinecraftReflection.getBlockClass();
+            Class<?> stateClass = MinecraftReflection.getIBlockDataClass();
+            List<Method> idMethods = new ArrayList<>();
+            List<Method> stateMethods = new ArrayList<>();
+            for (Method method : blockClass.getDeclaredMethods()) {
+                if (!Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 1) continue;
+                Class<?> parameter = method.getParameterTypes()[0];
+                if (method.getReturnType() == int.class && parameter == stateClass) {
+                    idMethods.add(method);
+                } else if (method.getReturnType() == stateClass && parameter == int.class) {
+                    stateMethods.add(method);
+                }
+            }
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (Method idMethod : idMethods) {
+                for (Method stateMethod : stateMethods) {
+                    idMethod.setAccessible(true);
+                    stateMethod.setAccessible(true);
+                    MethodHandle id = lookup.unreflect(idMethod).asType(MethodType.methodType(int.class, Object.class));
+                    MethodHandle state = lookup.unreflect(stateMethod).asType(MethodType.methodType(Object.class, int.class));
+                    if (isInverse(id, state)) {
+                        idLookup = id;
+                        stateLookup = state;
+                        return;
+                    }
+                }
+            }
+            logger.warning("未找到方块状态ID映射方法，将使用较慢的方块类型查询");
+        } catch (Throwable e) {
+            logger.warning("查找方块状态ID映射方法失败，将使用较慢的方块类型查询: " + e.getMessage());
+        }
+    }
+
+    private static boolean isInverse(MethodHandle id, MethodHandle state) {
+        try {
+            for (int i = 1; i <= 16; i++) {
+                Object value = state.invoke(i);
+                if (value == null || (int) id.invokeExact(value) != i) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    // 获取方块状态ID，无法获取时返回-1
+    public int getStateId(WrappedBlockData blockData) {
+        MethodHandle lookup = idLookup;
+        if (lookup == null || blockData == null) return -1;
+        try {
+            return (int) lookup.invokeExact(blockData.getHandle());
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    // 状态ID对应的方块是否受保护，ID不在表中时返回false
+    public boolean isProtectedId(int id) {
+        boolean[] protectedById = tables.protectedById;
+        return id >= 0 && id < protectedById.length && protectedById[id];
+    }
+
+    // 方块状态是否为受保护的方块类型
+    public boolean isProtected(WrappedBlockData blockData) {
+        Tables current = tables;
+        int id = getStateId(blockData);
+        if (id >= 0 && id < current.protectedById.length) {
+            return current.protectedById[id];
+        }
+        Material type = fallbackType(blockData);
+        return type != null && current.protectedByOrdinal[type.ordinal()];
+    }
+
+    // 获取方块状态对应的Material，无法识别时返回null
+    public Material getType(WrappedBlockData blockData) {
+        Tables current = tables;
+        int id = getStateId(blockData);
+        if (id >= 0 && id < current.materialById.length) {
+            return current.materialById[id];
+        }
+        return fallbackType(blockData);
+    }
+
+    // 状态ID对应的Material，ID不在表中时返回null
+    public Material getTypeById(int id) {
+        Material[] materialById = tables.materialById;
+        return id >= 0 && id < materialById.length ? materialById[id] : null;
+    }
+
+    public int getStateCount() {
+        return tables.materialById.length;
+    }
+
+    private static Material fallbackType(WrappedBlockData blockData) {
+        if (blockData == null) return null;
+        try {
+            return blockData.getType();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
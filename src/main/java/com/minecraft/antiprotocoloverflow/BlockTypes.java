@@ -0,0 +1,63 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 方块类型判断
+ * 容器、告示牌、潜影盒的判断按Material序号预先计算为数组，热路径上只读一次数组，
+ * 不再逐个比较枚举或对类型名做字符串匹配。
+ */
+public final class BlockTypes {
+    private static final Set<Material> CONTAINERS = EnumSet.of(
+            Material.CHEST, Material.TRAPPED_CHEST, Material.BARREL, Material.SHULKER_BOX,
+            Material.WHITE_SHULKER_BOX, Material.ORANGE_SHULKER_BOX, Material.MAGENTA_SHULKER_BOX,
+            Material.LIGHT_BLUE_SHULKER_BOX, Material.YELLOW_SHULKER_BOX, Material.LIME_SHULKER_BOX,
+            Material.PINK_SHULKER_BOX, Material.GRAY_SHULKER_BOX, Material.LIGHT_GRAY_SHULKER_BOX,
+            Material.CYAN_SHULKER_BOX, Material.PURPLE_SHULKER_BOX, Material.BLUE_SHULKER_BOX,
+            Material.BROWN_SHULKER_BOX, Material.GREEN_SHULKER_BOX, Material.RED_SHULKER_BOX,
+            Material.BLACK_SHULKER_BOX, Material.ENDER_CHEST, Material.HOPPER,
+            Material.DROPPER, Material.DISPENSER, Material.FURNACE, Material.BLAST_FURNACE,
+            Material.SMOKER, Material.BREWING_STAND, Material.LECTERN, Material.CARTOGRAPHY_TABLE,
+            Material.LOOM, Material.STONECUTTER, Material.GRINDSTONE, Material.ANVIL,
+            Material.CHIPPED_ANVIL, Material.DAMAGED_ANVIL, Material.BEACON, Material.ENCHANTING_TABLE,
+            Material.BOOKSHELF, Material.COMPOSTER, Material.CRAFTING_TABLE, Material.SMITHING_TABLE,
+            Material.FLETCHING_TABLE);
+
+    private static final boolean[] CONTAINER_BY_ORDINAL;
+    private static final boolean[] SIGN_BY_ORDINAL;
+    private static final boolean[] SHULKER_BOX_BY_ORDINAL;
+
+    static {
+        Material[] materials = Material.values();
+        CONTAINER_BY_ORDINAL = new boolean[materials.length];
+        SIGN_BY_ORDINAL = new boolean[materials.length];
+        SHULKER_BOX_BY_ORDINAL = new boolean[materials.length];
+        for (Material material : materials) {
+            String name = material.name();
+            CONTAINER_BY_ORDINAL[material.ordinal()] = CONTAINERS.contains(material);
+            SIGN_BY_ORDINAL[material.ordinal()] = name.contains("SIGN") && !name.contains("ITEM_FRAME");
+            SHULKER_BOX_BY_ORDINAL[material.ordinal()] = name.contains("SHULKER_BOX");
+        }
+    }
+
+    private BlockTypes() {
+    }
+
+    // 是否为容器类型的方块
+    public static boolean isContainer(Material type) {
+        return type != null && CONTAINER_BY_ORDINAL[type.ordinal()];
+    }
+
+    // 是否为告示牌（含墙上和悬挂告示牌）
+    public static boolean isSign(Material type) {
+        return type != null && SIGN_BY_ORDINAL[type.ordinal()];
+    }
+
+    // 是否为潜影盒（含各种颜色）
+    public static boolean isShulkerBox(Material type) {
+        return type != null && SHULKER_BOX_BY_ORDINAL[type.ordinal()];
+    }
+}
@@ -0,0 +1,77 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 按字节计算的单玩家令牌桶
+ * 每tick按bytesPerTick补充额度（可按玩家速度倍数缩放），额度为正时允许发送，发送后扣除实际字节数，可以透支。
+ * 一个很重的物品会让后续重物品顺延，而轻量物品不受影响。
+ *
+ * 本类不依赖Bukkit，tick序号由调用方传入。
+ */
+public class ByteBudget {
+    private final Map<UUID, Bucket> buckets = new ConcurrentHashMap<>();
+    private volatile int bytesPerTick;
+    private volatile int burstTicks;
+    private volatile int cheapBytes;
+    private volatile ToDoubleFunction<UUID> speedFactor = id -> 1.0;
+
+    private static final class Bucket {
+        double tokens;
+        long lastTick = -1;
+    }
+
+    public ByteBudget(int bytesPerTick, int burstTicks, int cheapBytes) {
+        configure(bytesPerTick, burstTicks, cheapBytes);
+    }
+
+    public void configure(int bytesPerTick, int burstTicks, int cheapBytes) {
+        this.bytesPerTick = Math.max(1, bytesPerTick);
+        this.burstTicks = Math.max(1, burstTicks);
+        this.cheapBytes = Math.max(0, cheapBytes);
+    }
+
+    public void setSpeedFactor(ToDoubleFunction<UUID> speedFactor) {
+        this.speedFactor = speedFactor;
+    }
+
+    // 不超过该字节数的数据视为轻量，不占用字节额度
+    public boolean isCheap(int bytes) {
+        return bytes <= cheapBytes;
+    }
+
+    /**
+     * 尝试为玩家扣除发送额度
+     * @return 是否允许发送
+     */
+    public boolean tryConsume(UUID playerId, int bytes, long tick) {
+        if (isCheap(bytes)) return true;
+        Bucket bucket = buckets.computeIfAbsent(playerId, k -> new Bucket());
+        synchronized (bucket) {
+            double rate = bytesPerTick * Math.max(0.01, speedFactor.applyAsDouble(playerId));
+            double capacity = rate * burstTicks;
+            if (bucket.lastTick < 0) {
+                bucket.tokens = capacity;
+            } else if (tick > bucket.lastTick) {
+                bucket.tokens = Math.min(capacity, bucket.tokens + (tick - bucket.lastTick) * rate);
+            }
+            bucket.lastTick = Math.max(bucket.lastTick, tick);
+            if (bucket.tokens <= 0) {
+                return false;
+            }
+            bucket.tokens -= bytes;
+            return true;
+        }
+    }
+
+    public void removePlayer(UUID playerId) {
+        buckets.remove(playerId);
+    }
+
+    public void clear() {
+        buckets.clear();
+    }
+}
@@ -0,0 +1,136 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 区块内受保护方块按区块段整理后的布局
+ * 由ChunkEntry在第一次使用时计算并缓存，同一版本的区块记录只计算一次，所有玩家共享；
+ * 方块变化会生成新版本的区块记录，旧布局随旧记录一起失效。
+ * 坐标已预先解包，并记录每个区块段内方块的包围盒和最大数据量，玩家只需计算自己的距离，
+ * 整段都在显示距离内或都是轻量方块时直接跳过。
+ */
+final class ChunkLayout {
+    private static final LongAdder BUILDS = new LongAdder();
+    private static final LongAdder REUSES = new LongAdder();
+
+    final long[] positions;
+    final Material[] types;
+    final int[] xs;
+    final int[] ys;
+    final int[] zs;
+    // 每个方块携带的数据量，区块未估算时为null
+    final int[] weights;
+    // 第s个区块段的方块下标范围为[sectionStart[s], sectionStart[s + 1])
+    final int[] sectionStart;
+    // 每个区块段内方块的包围盒
+    final int[] minX;
+    final int[] maxX;
+    final int[] minY;
+    final int[] maxY;
+    final int[] minZ;
+    final int[] maxZ;
+    // 每个区块段内方块携带数据量的最大值，区块未估算时为null
+    final int[] maxWeight;
+
+    private ChunkLayout(long[] positions, Material[] types, int[] weights) {
+        int count = positions.length;
+        // 按区块段排序，段序号加偏移后放在高32位，低32位为原下标
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            long section = (BlockKeys.unpackY(positions[i]) >> 4) + (1L << 20);
+            order[i] = section << 32 | i;
+        }
+        Arrays.sort(order);
+
+        this.positions = new long[count];
+        this.types = new Material[count];
+        this.xs = new int[count];
+        this.ys = new int[count];
+        this.zs = new int[count];
+        this.weights = weights == null ? null : new int[count];
+        int sections = 0;
+        long lastSection = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int source = (int) order[i];
+            long packed = positions[source];
+            this.positions[i] = packed;
+            this.types[i] = types[source];
+            xs[i] = BlockKeys.unpackX(packed);
+            ys[i] = BlockKeys.unpackY(packed);
+            zs[i] = BlockKeys.unpackZ(packed);
+            if (weights != null) {
+                this.weights[i] = weights[source];
+            }
+            if (order[i] >>> 32 != lastSection) {
+                lastSection = order[i] >>> 32;
+                sections++;
+            }
+        }
+
+        this.sectionStart = new int[sections + 1];
+        this.minX = new int[sections];
+        this.maxX = new int[sections];
+        this.minY = new int[sections];
+        this.maxY = new int[sections];
+        this.minZ = new int[sections];
+        this.maxZ = new int[sections];
+        this.maxWeight = weights == null ? null : new int[sections];
+        int s = -1;
+        lastSection = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (order[i] >>> 32 != lastSection) {
+                lastSection = order[i] >>> 32;
+                s++;
+                sectionStart[s] = i;
+                minX[s] = maxX[s] = xs[i];
+                minY[s] = maxY[s] = ys[i];
+                minZ[s] = maxZ[s] = zs[i];
+            } else {
+                minX[s] = Math.min(minX[s], xs[i]);
+                maxX[s] = Math.max(maxX[s], xs[i]);
+                minY[s] = Math.min(minY[s], ys[i]);
+                maxY[s] = Math.max(maxY[s], ys[i]);
+                minZ[s] = Math.min(minZ[s], zs[i]);
+                maxZ[s] = Math.max(maxZ[s], zs[i]);
+            }
+            if (maxWeight != null) {
+                maxWeight[s] = Math.max(maxWeight[s], this.weights[i]);
+            }
+        }
+        sectionStart[sections] = count;
+    }
+
+    static ChunkLayout build(long[] positions, Material[] types, int[] weights) {
+        BUILDS.increment();
+        return new ChunkLayout(positions, types, weights);
+    }
+
+    static void recordReuse() {
+        REUSES.increment();
+    }
+
+    int sectionCount() {
+        return sectionStart.length - 1;
+    }
+
+    // 区块段内离玩家最远的方块与玩家距离的平方上界，不大于显示距离时整段都可见
+    double farthestSquared(int section, double px, double py, double pz) {
+        double dx = Math.max(Math.abs(minX[section] - px), Math.abs(maxX[section] - px));
+        double dy = Math.max(Math.abs(minY[section] - py), Math.abs(maxY[section] - py));
+        double dz = Math.max(Math.abs(minZ[section] - pz), Math.abs(maxZ[section] - pz));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    // 计算过的布局数量，与区块变化次数成正比，与查看区块的玩家数无关
+    static long getBuildCount() {
+        return BUILDS.sum();
+    }
+
+    // 直接复用已有布局的次数
+    static long getReuseCount() {
+        return REUSES.sum();
+    }
+}
@@ -0,0 +1,396 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.WrappedLevelChunkData;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 在MAP_CHUNK数据包发出前直接改写区块数据
+ * 将远处受保护方块在调色板编码的区块段中替换为空气，并从方块实体列表中删除对应条目，
+ * 这样客户端不会收到这些方块实体的NBT，也不需要额外的BLOCK_CHANGE数据包。
+ */
+public class ChunkPacketRewriter {
+    // 全局方块状态ID 0 对应 minecraft:air
+    private static final int AIR_STATE_ID = 0;
+    private static final int SECTION_VOLUME = 4096;
+    private static final int BIOME_VOLUME = 64;
+
+    private final BlockStateTable blockStateTable;
+
+    // 被改写隐藏的方块回调
+    public interface HiddenBlockSink {
+        void hidden(int x, int y, int z, Material type);
+    }
+
+    public ChunkPacketRewriter(BlockStateTable blockStateTable) {
+        this.blockStateTable = blockStateTable;
+    }
+
+    /**
+     * 改写区块数据包
+     * 只替换VisibilityRules选中的位置中数据包当前状态确实受保护的方块，索引暂时过期时不会误删其他方块，
+     * 需要重新编码的区块段展开为更大的调色板，不会整段或整个调色板条目替换
+     * @param entry 区块索引结果，尚未完成分类时为null，此时以数据包中远处的方块实体为候选（未启用数据量估算时所有受保护方块都延迟显示）
+     * @return 被隐藏的方块数量，无法识别数据格式、没有方块状态查找表，或启用了数据量估算而区块尚未分类时返回-1
+     *         （调用方应回退到BLOCK_CHANGE方式）
+     */
+    public int rewrite(PacketContainer packet, World world, int chunkX, int chunkZ, ProtectedBlockIndex.ChunkEntry entry,
+                       double px, double py, double pz, VisibilityRules rules, HiddenBlockSink sink) {
+        // 没有状态ID查找表时无法确认数据包中的方块是否受保护
+        if (blockStateTable.getStateCount() == 0) return -1;
+        // 数据量未估算时无法判断方块是否延迟显示，交给扫描流水线在分类完成后处理
+        if (entry == null && rules.isWeighting()) return -1;
+        WrappedLevelChunkData.ChunkData data = packet.getLevelChunkData().read(0);
+        if (data == null) return -1;
+
+        List<WrappedLevelChunkData.BlockEntityInfo> blockEntities = data.getBlockEntityInfo();
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+
+        // 找出需要隐藏的候选位置，方块类型以数据包中的实际状态为准
+        Set<Long> targets = new HashSet<>();
+        if (entry != null) {
+            // 使用所有玩家共享的区块布局，只隐藏远处需要延迟显示的方块
+            ChunkLayout layout = entry.layout();
+            rules.forEachHidden(entry, layout, px, py, pz, (i, distSq) -> targets.add(layout.positions[i]));
+        } else {
+            for (WrappedLevelChunkData.BlockEntityInfo info : blockEntities) {
+                int x = baseX + info.getSectionX();
+                int z = baseZ + info.getSectionZ();
+                long packed = BlockKeys.pack(x, info.getY(), z);
+                if (rules.isFar(px, py, pz, x, info.getY(), z) && rules.defers(null, packed)) {
+                    targets.add(packed);
+                }
+            }
+        }
+        if (targets.isEmpty()) return 0;
+
+        byte[] buffer = data.getBuffer();
+        int minHeight = world.getMinHeight();
+        int sectionCount = (world.getMaxHeight() - minHeight) >> 4;
+
+        // 1.21.5起去掉了数据数组的长度前缀，两种格式都尝试，以恰好读完缓冲区为准
+        List<Section> sections = parse(buffer, sectionCount, false);
+        boolean lengthPrefixed = false;
+        if (sections == null) {
+            sections = parse(buffer, sectionCount, true);
+            lengthPrefixed = true;
+        }
+        if (sections == null) return -1;
+
+        // 按区块段分组
+        Map<Integer, List<Long>> bySection = new HashMap<>();
+        for (Long packed : targets) {
+            int sectionIndex = (BlockKeys.unpackY(packed) - minHeight) >> 4;
+            if (sectionIndex < 0 || sectionIndex >= sectionCount) continue;
+            bySection.computeIfAbsent(sectionIndex, k -> new ArrayList<>()).add(packed);
+        }
+
+        Set<Long> hiddenPositions = new HashSet<>();
+        for (Map.Entry<Integer, List<Long>> group : bySection.entrySet()) {
+            int sectionIndex = group.getKey();
+            int sectionBaseY = minHeight + (sectionIndex << 4);
+            hideInSection(sections.get(sectionIndex), group.getValue(), baseX, sectionBaseY, baseZ, hiddenPositions, sink);
+        }
+        if (hiddenPositions.isEmpty()) return 0;
+
+        // 删除被隐藏方块的方块实体条目
+        List<WrappedLevelChunkData.BlockEntityInfo> keptEntities = new ArrayList<>(blockEntities.size());
+        for (WrappedLevelChunkData.BlockEntityInfo info : blockEntities) {
+            long packed = BlockKeys.pack(baseX + info.getSectionX(), info.getY(), baseZ + info.getSectionZ());
+            if (!hiddenPositions.contains(packed)) {
+                keptEntities.add(info);
+            }
+        }
+
+        // 区块数据包由服务器为每个玩家单独构造，可以直接修改
+        data.setBuffer(write(buffer, sections, lengthPrefixed));
+        data.setBlockEntityInfo(keptEntities);
+        packet.getLevelChunkData().write(0, data);
+        return hiddenPositions.size();
+    }
+
+    private void hideInSection(Section section, List<Long> positions,
+                               int baseX, int baseY, int baseZ, Set<Long> hiddenPositions, HiddenBlockSink sink) {
+        if (section.palette != null && section.bits > 0) {
+            int airIndex = indexOf(section.palette, AIR_STATE_ID);
+            if (airIndex < 0 && section.palette.length < (1 << section.bits)) {
+                // 调色板还有空位，追加空气
+                section.palette = Arrays.copyOf(section.palette, section.palette.length + 1);
+                airIndex = section.palette.length - 1;
+                section.palette[airIndex] = AIR_STATE_ID;
+            }
+            if (airIndex < 0) {
+                reencode(section, positions, hiddenPositions, sink);
+                return;
+            }
+            for (Long packed : positions) {
+                int index = localIndex(packed);
+                int state = section.palette[get(section.data, section.bits, index)];
+                // 索引可能暂时过期，数据包中已经不是受保护方块的位置保持原样
+                if (!blockStateTable.isProtectedId(state)) continue;
+                set(section.data, section.bits, index, airIndex);
+                section.blockCount--;
+                section.modified = true;
+                hide(packed, blockStateTable.getTypeById(state), hiddenPositions, sink);
+            }
+        } else if (section.palette == null) {
+            // 直接编码：数据数组中存放的就是全局方块状态ID
+            for (Long packed : positions) {
+                int index = localIndex(packed);
+                int state = get(section.data, section.bits, index);
+                if (!blockStateTable.isProtectedId(state)) continue;
+                set(section.data, section.bits, index, AIR_STATE_ID);
+                section.blockCount--;
+                section.modified = true;
+                hide(packed, blockStateTable.getTypeById(state), hiddenPositions, sink);
+            }
+        } else {
+            // 单值区块段：只有该方块受保护时才有需要替换的位置，展开为调色板编码后只替换目标位置
+            if (!blockStateTable.isProtectedId(section.palette[0])) return;
+            reencode(section, positions, hiddenPositions, sink);
+        }
+        section.blockCount = Math.max(0, section.blockCount);
+    }
+
+    // 单值或调色板已满且不含空气的区块段：解码为全局状态ID，只把目标位置替换为空气，再按新的调色板大小重新编码
+    // 调色板放不下时改用直接编码，不会影响目标以外的方块
+    private void reencode(Section section, List<Long> positions, Set<Long> hiddenPositions, HiddenBlockSink sink) {
+        int[] states = new int[SECTION_VOLUME];
+        for (int index = 0; index < SECTION_VOLUME; index++) {
+            states[index] = section.bits == 0 ? section.palette[0] : section.palette[get(section.data, section.bits, index)];
+        }
+        boolean changed = false;
+        for (Long packed : positions) {
+            int index = localIndex(packed);
+            int state = states[index];
+            if (!blockStateTable.isProtectedId(state)) continue;
+            states[index] = AIR_STATE_ID;
+            section.blockCount--;
+            changed = true;
+            hide(packed, blockStateTable.getTypeById(state), hiddenPositions, sink);
+        }
+        if (!changed) return;
+
+        List<Integer> palette = new ArrayList<>();
+        Map<Integer, Integer> paletteIndex = new HashMap<>();
+        for (int state : states) {
+            if (paletteIndex.putIfAbsent(state, palette.size()) == null) {
+                palette.add(state);
+            }
+        }
+        // 方块区块段的调色板编码至少4位，超过8位时使用全局状态ID
+        int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.size() - 1));
+        if (bits > 8) {
+            bits = 32 - Integer.numberOfLeadingZeros(blockStateTable.getStateCount() - 1);
+            section.palette = null;
+        } else {
+            section.palette = new int[palette.size()];
+            for (int i = 0; i < section.palette.length; i++) {
+                section.palette[i] = palette.get(i);
+            }
+        }
+        int perLong = 64 / bits;
+        long[] data = new long[(SECTION_VOLUME + perLong - 1) / perLong];
+        for (int index = 0; index < SECTION_VOLUME; index++) {
+            set(data, bits, index, section.palette == null ? states[index] : paletteIndex.get(states[index]));
+        }
+        section.bits = bits;
+        section.data = data;
+        section.blockCount = Math.max(0, section.blockCount);
+        section.modified = true;
+    }
+
+    private static void hide(long packed, Material type, Set<Long> hiddenPositions, HiddenBlockSink sink) {
+        if (hiddenPositions.add(packed)) {
+            sink.hidden(BlockKeys.unpackX(packed), BlockKeys.unpackY(packed), BlockKeys.unpackZ(packed), type);
+        }
+    }
+
+    // 区块段内的数据下标：y << 8 | z << 4 | x
+    private static int localIndex(long packed) {
+        return ((BlockKeys.unpackY(packed) & 15) << 8) | ((BlockKeys.unpackZ(packed) & 15) << 4) | (BlockKeys.unpackX(packed) & 15);
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+
+    static int get(long[] data, int bits, int index) {
+        int perLong = 64 / bits;
+        int longIndex = index / perLong;
+        int offset = (index - longIndex * perLong) * bits;
+        return (int) ((data[longIndex] >>> offset) & ((1L << bits) - 1));
+    }
+
+    static void set(long[] data, int bits, int index, int value) {
+        int perLong = 64 / bits;
+        int longIndex = index / perLong;
+        int offset = (index - longIndex * perLong) * bits;
+        long mask = ((1L << bits) - 1) << offset;
+        data[longIndex] = (data[longIndex] & ~mask) | (((long) value << offset) & mask);
+    }
+
+    // 解析后的区块段，只有被修改的区块段才会重新编码
+    private static final class Section {
+        int start;
+        int end;
+        int blockCount;
+        int bits;
+        int[] palette;      // 单值时长度为1，直接编码时为null
+        long[] data;
+        int biomeStart;
+        boolean modified;
+    }
+
+    // 解析区块数据缓冲区，格式不符或没有恰好读完时返回null
+    private static List<Section> parse(byte[] buffer, int sectionCount, boolean lengthPrefixed) {
+        Reader reader = new Reader(buffer);
+        List<Section> sections = new ArrayList<>(sectionCount);
+        try {
+            for (int i = 0; i < sectionCount; i++) {
+                Section section = new Section();
+                section.start = reader.pos;
+                section.blockCount = reader.readShort();
+                section.bits = reader.readUnsignedByte();
+                if (section.bits == 0) {
+                    section.palette = new int[]{reader.readVarInt()};
+                } else if (section.bits <= 8) {
+                    int length = reader.readVarInt();
+                    if (length < 0 || length > SECTION_VOLUME) return null;
+                    section.palette = new int[length];
+                    for (int p = 0; p < length; p++) {
+                        section.palette[p] = reader.readVarInt();
+                    }
+                }
+                section.data = readData(reader, section.bits, SECTION_VOLUME, lengthPrefixed);
+                if (section.data == null) return null;
+
+                // 生物群系部分原样保留
+                section.biomeStart = reader.pos;
+                int biomeBits = reader.readUnsignedByte();
+                if (biomeBits == 0) {
+                    reader.readVarInt();
+                } else if (biomeBits <= 3) {
+                    int length = reader.readVarInt();
+                    if (length < 0 || length > BIOME_VOLUME) return null;
+                    for (int p = 0; p < length; p++) {
+                        reader.readVarInt();
+                    }
+                }
+                if (readData(reader, biomeBits, BIOME_VOLUME, lengthPrefixed) == null) return null;
+                section.end = reader.pos;
+                sections.add(section);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+        return reader.pos == buffer.length ? sections : null;
+    }
+
+    private static long[] readData(Reader reader, int bits, int volume, boolean lengthPrefixed) {
+        int expected = 0;
+        if (bits > 0) {
+            int perLong = 64 / bits;
+            expected = (volume + perLong - 1) / perLong;
+        }
+        int length = lengthPrefixed ? reader.readVarInt() : expected;
+        if (length != expected) return null;
+        long[] data = new long[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = reader.readLong();
+        }
+        return data;
+    }
+
+    private static byte[] write(byte[] original, List<Section> sections, boolean lengthPrefixed) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(original.length + 16);
+        for (Section section : sections) {
+            if (!section.modified) {
+                out.write(original, section.start, section.end - section.start);
+                continue;
+            }
+            out.write((section.blockCount >> 8) & 0xFF);
+            out.write(section.blockCount & 0xFF);
+            out.write(section.bits);
+            if (section.bits == 0) {
+                writeVarInt(out, section.palette[0]);
+            } else if (section.palette != null) {
+                writeVarInt(out, section.palette.length);
+                for (int id : section.palette) {
+                    writeVarInt(out, id);
+                }
+            }
+            if (lengthPrefixed) {
+                writeVarInt(out, section.data.length);
+            }
+            for (long value : section.data) {
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (value >>> shift) & 0xFF);
+                }
+            }
+            out.write(original, section.biomeStart, section.end - section.biomeStart);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // 简单的大端序字节读取器
+    private static final class Reader {
+        private final byte[] buffer;
+        private int pos;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int readUnsignedByte() {
+            return buffer[pos++] & 0xFF;
+        }
+
+        int readShort() {
+            return (short) ((readUnsignedByte() << 8) | readUnsignedByte());
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readUnsignedByte();
+            }
+            return value;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+                if (shift > 35) throw new ArrayIndexOutOfBoundsException("VarInt过长");
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
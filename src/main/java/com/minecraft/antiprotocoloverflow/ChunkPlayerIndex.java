@@ -0,0 +1,121 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 区块到玩家的反向索引
+ * 记录每个世界的每个区块中有哪些玩家存在隐藏方块或已处理记录，方块破坏、放置和区块卸载时只处理相关的玩家，
+ * 不再遍历所有玩家的数据；区块按BlockKeys.chunkKey打包为long，移除为O(1)。
+ *
+ * 索引只会多记不会少记：方块显示后玩家仍保留在区块中，直到区块卸载、玩家切换世界或离线时清除。
+ * 不使用全局锁：各层都是ConcurrentHashMap，桶内集合的增删和空桶移除在compute中完成，只锁住对应的键，
+ * 不同玩家的数据包线程调用markProcessed/markHidden时互不等待。
+ * 玩家离线与该玩家的标记并发时可能留下少量多余记录，随区块卸载清除，不影响正确性。
+ */
+final class ChunkPlayerIndex {
+    // 世界UID -> 区块键 -> 在该区块有记录的玩家
+    private final Map<UUID, Map<Long, Set<UUID>>> playersByChunk = new ConcurrentHashMap<>();
+    // 玩家UUID -> 世界UID -> 玩家有记录的区块键
+    private final Map<UUID, Map<UUID, Set<Long>>> chunksByPlayer = new ConcurrentHashMap<>();
+
+    // 记录玩家在区块中有隐藏方块
+    public void markHidden(UUID playerId, UUID worldId, long chunkKey) {
+        link(playerId, worldId, chunkKey);
+    }
+
+    // 记录玩家已处理区块
+    public void markProcessed(UUID playerId, UUID worldId, long chunkKey) {
+        link(playerId, worldId, chunkKey);
+    }
+
+    private void link(UUID playerId, UUID worldId, long chunkKey) {
+        playersByChunk.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>())
+                .compute(chunkKey, (k, players) -> add(players, playerId));
+        chunksByPlayer.computeIfAbsent(playerId, k -> new ConcurrentHashMap<>())
+                .compute(worldId, (k, chunks) -> add(chunks, chunkKey));
+    }
+
+    private static <T> Set<T> add(Set<T> set, T value) {
+        if (set == null) {
+            set = ConcurrentHashMap.newKeySet(4);
+        }
+        set.add(value);
+        return set;
+    }
+
+    // 从集合中移除，集合为空时返回null使compute删除该键
+    private static <T> Set<T> remove(Set<T> set, T value) {
+        set.remove(value);
+        return set.isEmpty() ? null : set;
+    }
+
+    // 在区块中有记录的玩家（副本）
+    public Set<UUID> playersAt(UUID worldId, long chunkKey) {
+        Map<Long, Set<UUID>> chunks = playersByChunk.get(worldId);
+        Set<UUID> players = chunks == null ? null : chunks.get(chunkKey);
+        return players == null ? Collections.emptySet() : new HashSet<>(players);
+    }
+
+    /**
+     * 区块卸载：移除区块的全部记录
+     * @return 在该区块有记录的玩家
+     */
+    public Set<UUID> removeChunk(UUID worldId, long chunkKey) {
+        Map<Long, Set<UUID>> chunks = playersByChunk.get(worldId);
+        Set<UUID> players = chunks == null ? null : chunks.remove(chunkKey);
+        if (players == null) return Collections.emptySet();
+        for (UUID playerId : players) {
+            Map<UUID, Set<Long>> worlds = chunksByPlayer.get(playerId);
+            if (worlds != null) {
+                worlds.computeIfPresent(worldId, (k, playerChunks) -> remove(playerChunks, chunkKey));
+            }
+        }
+        return players;
+    }
+
+    // 玩家离开某个世界：移除玩家在该世界的全部记录
+    public void removePlayerWorld(UUID playerId, UUID worldId) {
+        Map<UUID, Set<Long>> worlds = chunksByPlayer.get(playerId);
+        Set<Long> chunks = worlds == null ? null : worlds.remove(worldId);
+        if (chunks != null) {
+            detach(playerId, worldId, chunks);
+        }
+    }
+
+    // 玩家离线：移除玩家在所有世界的记录
+    public void removePlayer(UUID playerId) {
+        Map<UUID, Set<Long>> worlds = chunksByPlayer.remove(playerId);
+        if (worlds != null) {
+            for (Map.Entry<UUID, Set<Long>> entry : worlds.entrySet()) {
+                detach(playerId, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void detach(UUID playerId, UUID worldId, Set<Long> chunkKeys) {
+        Map<Long, Set<UUID>> chunks = playersByChunk.get(worldId);
+        if (chunks == null) return;
+        for (Long chunkKey : chunkKeys) {
+            chunks.computeIfPresent(chunkKey, (k, players) -> remove(players, playerId));
+        }
+    }
+
+    // 索引中的区块数量
+    public int getIndexedChunkCount() {
+        int count = 0;
+        for (Map<Long, Set<UUID>> chunks : playersByChunk.values()) {
+            count += chunks.size();
+        }
+        return count;
+    }
+
+    public void clear() {
+        playersByChunk.clear();
+        chunksByPlayer.clear();
+    }
+}
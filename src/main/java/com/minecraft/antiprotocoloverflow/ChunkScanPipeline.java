@@ -0,0 +1,347 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 线程安全的区块扫描流水线
+ * 1. 主线程截取不可变的ChunkSnapshot，启用数据量估算时同时估算方块实体携带的数据量
+ * 2. 固定大小的工作线程池对快照进行分类，找出受保护方块
+ * 3. 分类结果放回主线程消费队列，在每tick的时间预算内写入索引并处理等待该区块的玩家
+ * 工作线程只接触快照，不会调用任何Bukkit世界API。
+ */
+public class ChunkScanPipeline implements Listener {
+    private static final int WORK_QUEUE_CAPACITY = 256;
+
+    private final JavaPlugin plugin;
+    private final ProtectedBlockIndex index;
+    private final Set<Material> protectedBlockTypes;
+    // 按Material序号索引的受保护标记，工作线程只读
+    private volatile boolean[] protectedByOrdinal;
+    // 区块对玩家可见时的回调（在主线程执行）
+    private final BiConsumer<Player, ProtectedBlockIndex.ChunkEntry> viewCallback;
+
+    private final ThreadPoolExecutor workers;
+    // 等待在主线程截取快照的区块
+    private final Queue<Chunk> pendingCaptures = new ArrayDeque<>();
+    // 线程池已满时暂存的扫描任务，下一tick重新提交
+    private final Queue<ScanJob> backlog = new ArrayDeque<>();
+    // 工作线程完成的分类结果
+    private final Queue<ScanResult> results = new ConcurrentLinkedQueue<>();
+    // 数据包线程提交的区块可见请求
+    private final Queue<ViewRequest> viewRequests = new ConcurrentLinkedQueue<>();
+    // 等待区块分类完成的可见请求，仅在主线程访问
+    private final Map<ChunkId, List<ViewRequest>> parkedViews = new HashMap<>();
+
+    private volatile long tickBudgetNanos;
+    private BukkitTask drainTask;
+
+    // 截取快照时需要的区块信息
+    private static final class ScanJob {
+        final UUID worldId;
+        final int chunkX;
+        final int chunkZ;
+        final int minHeight;
+        final int maxHeight;
+        final ChunkSnapshot snapshot;
+
+        ScanJob(UUID worldId, int chunkX, int chunkZ, int minHeight, int maxHeight, ChunkSnapshot snapshot) {
+            this.worldId = worldId;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.minHeight = minHeight;
+            this.maxHeight = maxHeight;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private static final class ScanResult {
+        final ScanJob job;
+        final ProtectedBlockIndex.ChunkEntry entry;
+
+        ScanResult(ScanJob job, ProtectedBlockIndex.ChunkEntry entry) {
+            this.job = job;
+            this.entry = entry;
+        }
+    }
+
+    private static final class ViewRequest {
+        final Player player;
+        // 请求时玩家所在的世界，处理时玩家已切换世界则丢弃
+        final UUID worldId;
+        final int chunkX;
+        final int chunkZ;
+
+        ViewRequest(Player player, UUID worldId, int chunkX, int chunkZ) {
+            this.player = player;
+            this.worldId = worldId;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+    }
+
+    // 世界+区块坐标组成的键
+    private static final class ChunkId {
+        final UUID worldId;
+        final long chunkKey;
+
+        ChunkId(UUID worldId, long chunkKey) {
+            this.worldId = worldId;
+            this.chunkKey = chunkKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChunkId)) return false;
+            ChunkId other = (ChunkId) o;
+            return chunkKey == other.chunkKey && worldId.equals(other.worldId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * worldId.hashCode() + Long.hashCode(chunkKey);
+        }
+    }
+
+    public ChunkScanPipeline(JavaPlugin plugin, ProtectedBlockIndex index, Set<Material> protectedBlockTypes,
+                             int threads, long tickBudgetMillis,
+                             BiConsumer<Player, ProtectedBlockIndex.ChunkEntry> viewCallback) {
+        this.plugin = plugin;
+        this.index = index;
+        this.protectedBlockTypes = protectedBlockTypes;
+        this.viewCallback = viewCallback;
+        this.tickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, tickBudgetMillis));
+        refreshProtectedTypes();
+
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "AntiProtocolOverflow-Scan-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(WORK_QUEUE_CAPACITY), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public void start() {
+        drainTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+        for (World world : plugin.getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                submit(chunk);
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+        workers.shutdownNow();
+        pendingCaptures.clear();
+        backlog.clear();
+        results.clear();
+        viewRequests.clear();
+        parkedViews.clear();
+    }
+
+    public void setTickBudgetMillis(long tickBudgetMillis) {
+        this.tickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, tickBudgetMillis));
+    }
+
+    // 受保护方块类型变化后重建序号表
+    public void refreshProtectedTypes() {
+        boolean[] table = new boolean[Material.values().length];
+        for (Material material : protectedBlockTypes) {
+            table[material.ordinal()] = true;
+        }
+        protectedByOrdinal = table;
+    }
+
+    // 登记一个需要扫描的区块，快照在下一次消费时截取，必须在主线程调用
+    public void submit(Chunk chunk) {
+        if (index.markScanning(chunk.getWorld(), chunk.getX(), chunk.getZ())) {
+            pendingCaptures.add(chunk);
+        }
+    }
+
+    // 登记区块已发送给玩家，worldId为发送区块时玩家所在的世界，可在任意线程调用
+    public void requestView(Player player, UUID worldId, int chunkX, int chunkZ) {
+        viewRequests.add(new ViewRequest(player, worldId, chunkX, chunkZ));
+    }
+
+    // 排队中的任务数量
+    public int getPendingCount() {
+        return pendingCaptures.size() + backlog.size() + workers.getQueue().size() + results.size() + viewRequests.size();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        submit(event.getChunk());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        // 丢弃等待该区块分类结果的请求
+        Chunk chunk = event.getChunk();
+        parkedViews.remove(new ChunkId(chunk.getWorld().getUID(), BlockKeys.chunkKey(chunk.getX(), chunk.getZ())));
+    }
+
+    // 主线程消费队列，受每tick时间预算限制
+    private void drain() {
+        long deadline = System.nanoTime() + tickBudgetNanos;
+
+        // 先写入已完成的分类结果，让等待中的玩家尽快得到处理
+        ScanResult result;
+        while (System.nanoTime() < deadline && (result = results.poll()) != null) {
+            install(result);
+        }
+
+        ViewRequest request;
+        while (System.nanoTime() < deadline && (request = viewRequests.poll()) != null) {
+            resolveView(request);
+        }
+
+        // 重新提交上一tick被线程池拒绝的任务
+        ScanJob job;
+        while ((job = backlog.peek()) != null && dispatch(job)) {
+            backlog.poll();
+        }
+
+        Chunk chunk;
+        while (System.nanoTime() < deadline && (chunk = pendingCaptures.poll()) != null) {
+            capture(chunk);
+        }
+    }
+
+    private void capture(Chunk chunk) {
+        if (!chunk.isLoaded()) return;
+        World world = chunk.getWorld();
+        if (!index.isScanning(world, chunk.getX(), chunk.getZ())) return;
+
+        // 方块实体的内容不在快照中，数据量在写入索引时只对分类出的受保护方块估算
+        ScanJob job = new ScanJob(world.getUID(), chunk.getX(), chunk.getZ(),
+                world.getMinHeight(), world.getMaxHeight(), chunk.getChunkSnapshot(false, false, false));
+        if (!dispatch(job)) {
+            backlog.add(job);
+        }
+    }
+
+    private boolean dispatch(ScanJob job) {
+        try {
+            workers.execute(() -> results.add(new ScanResult(job, classify(job))));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭时直接丢弃任务
+            return workers.isShutdown();
+        }
+    }
+
+    // 在工作线程中对快照进行分类，只读取快照数据
+    private ProtectedBlockIndex.ChunkEntry classify(ScanJob job) {
+        boolean[] table = protectedByOrdinal;
+        ChunkSnapshot snapshot = job.snapshot;
+        int baseX = job.chunkX << 4;
+        int baseZ = job.chunkZ << 4;
+        long[] positions = new long[16];
+        Material[] types = new Material[16];
+        int count = 0;
+
+        for (int sectionY = job.minHeight; sectionY < job.maxHeight; sectionY += 16) {
+            if (snapshot.isSectionEmpty((sectionY - job.minHeight) >> 4)) continue;
+            int top = Math.min(sectionY + 16, job.maxHeight);
+            for (int y = sectionY; y < top; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        Material type = snapshot.getBlockType(x, y, z);
+                        if (table[type.ordinal()]) {
+                            if (count == positions.length) {
+                                positions = Arrays.copyOf(positions, count * 2);
+                                types = Arrays.copyOf(types, count * 2);
+                            }
+                            positions[count] = BlockKeys.pack(baseX + x, y, baseZ + z);
+                            types[count] = type;
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (count == 0) return ProtectedBlockIndex.ChunkEntry.EMPTY;
+        return new ProtectedBlockIndex.ChunkEntry(Arrays.copyOf(positions, count), Arrays.copyOf(types, count));
+    }
+
+    private void install(ScanResult result) {
+        ScanJob job = result.job;
+        World world = plugin.getServer().getWorld(job.worldId);
+        if (world == null) return;
+
+        ProtectedBlockIndex.InstallResult outcome = index.install(world, job.chunkX, job.chunkZ, result.entry);
+        if (outcome == ProtectedBlockIndex.InstallResult.STALE) {
+            // 扫描期间区块发生了变化，重新截取快照
+            if (world.isChunkLoaded(job.chunkX, job.chunkZ)) {
+                submit(world.getChunkAt(job.chunkX, job.chunkZ));
+            }
+            return;
+        }
+        if (outcome != ProtectedBlockIndex.InstallResult.INSTALLED) return;
+
+        List<ViewRequest> waiting = parkedViews.remove(new ChunkId(job.worldId, BlockKeys.chunkKey(job.chunkX, job.chunkZ)));
+        if (waiting != null) {
+            for (ViewRequest request : waiting) {
+                resolveView(request);
+            }
+        }
+    }
+
+    private void resolveView(ViewRequest request) {
+        Player player = request.player;
+        if (!player.isOnline()) return;
+
+        World world = player.getWorld();
+        if (!world.getUID().equals(request.worldId)) return;
+        ProtectedBlockIndex.ChunkEntry entry = index.getChunk(world, request.chunkX, request.chunkZ);
+        if (entry == null) {
+            // 区块尚未完成分类，等待分类结果写入后再处理
+            if (index.isScanning(world, request.chunkX, request.chunkZ)) {
+                parkedViews.computeIfAbsent(new ChunkId(request.worldId, BlockKeys.chunkKey(request.chunkX, request.chunkZ)),
+                        k -> new ArrayList<>()).add(request);
+            }
+            return;
+        }
+        if (!entry.isEmpty()) {
+            viewCallback.accept(player, entry);
+        }
+    }
+}
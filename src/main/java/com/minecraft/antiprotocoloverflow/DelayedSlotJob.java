@@ -0,0 +1,161 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 延迟物品槽发送任务
+ * 首次发送前等待加载延迟（按玩家当前的发包速度缩放），重新同步后接着发送，不再等待；之后每tick在调度器预算内发送：
+ * 轻量物品直接发送，重物品还受字节额度和每tick重物品数量限制，额度不足时跳过重物品，继续发送排在后面的轻量物品。
+ * 服务端已单独更新过的槽位不再发送旧的物品。一个tick内的多个物品合并为一个WINDOW_ITEMS更便宜时合并发送。
+ *
+ * 本类不依赖Bukkit，实际发送由Sender完成。
+ */
+public class DelayedSlotJob implements PacketJob {
+
+    // 实际发送数据包
+    public interface Sender {
+        // 玩家是否仍然在线
+        boolean isOnline();
+
+        // 单独发送一个物品槽，失败时返回false
+        boolean sendSlot(PacketHandler.DelayedItem delayedItem);
+
+        // 把一批物品合并进完整的窗口内容发送，失败时返回false
+        boolean sendCoalesced(List<PacketHandler.DelayedItem> batch, long batchBytes);
+
+        // 全部物品发送完成
+        default void finished() {
+        }
+    }
+
+    private final UUID playerId;
+    private final WindowSession session;
+    private final List<PacketHandler.DelayedItem> items;
+    private final Sender sender;
+    private final ByteBudget byteBudget;
+    private final AdaptivePacer pacer;
+    private final long baseDelayTicks;
+    private final int heavyItemsPerTick;
+    private final boolean coalesce;
+    private final int itemPacketCostBytes;
+    private final boolean resumed;
+    private long startTick = -1;
+    private volatile boolean done;
+
+    /**
+     * @param baseDelayTicks 首次发送前的延迟
+     * @param heavyItemsPerTick 每tick最多发送的重物品数量
+     * @param coalesce 是否允许合并为WINDOW_ITEMS
+     * @param itemPacketCostBytes 每个数据包的包头、压缩和flush开销折算的字节数
+     */
+    public DelayedSlotJob(UUID playerId, WindowSession session, List<PacketHandler.DelayedItem> items, Sender sender,
+                          ByteBudget byteBudget, AdaptivePacer pacer, long baseDelayTicks, int heavyItemsPerTick,
+                          boolean coalesce, int itemPacketCostBytes) {
+        this.playerId = playerId;
+        this.session = session;
+        this.items = items;
+        this.sender = sender;
+        this.byteBudget = byteBudget;
+        this.pacer = pacer;
+        this.baseDelayTicks = baseDelayTicks;
+        this.heavyItemsPerTick = heavyItemsPerTick;
+        this.coalesce = coalesce;
+        this.itemPacketCostBytes = itemPacketCostBytes;
+        this.resumed = session.hasStarted();
+    }
+
+    /**
+     * 在窗口会话中登记本任务，同一窗口之前未完成的任务被取消
+     * @return 会话已释放时返回false，调用方不应再提交本任务
+     */
+    public boolean start() {
+        return session.start(items, this);
+    }
+
+    @Override
+    public int run(int budget, long tick) {
+        if (startTick < 0) {
+            long delayTicks = Math.max(1L, Math.round(baseDelayTicks / pacer.speedFactor(playerId)));
+            startTick = resumed ? tick : tick + delayTicks - 1;
+        }
+        if (tick < startTick) {
+            return 0;
+        }
+
+        // 检查玩家是否在线以及窗口会话是否已释放
+        if (!sender.isOnline() || session.isReleased()) {
+            finish();
+            return 0;
+        }
+
+        List<PacketHandler.DelayedItem> batch = new ArrayList<>();
+        long batchBytes = 0;
+        int heavyThisTick = 0;
+        Iterator<PacketHandler.DelayedItem> iterator = items.iterator();
+        while (iterator.hasNext() && batch.size() < budget) {
+            PacketHandler.DelayedItem delayedItem = iterator.next();
+            // 服务端已单独更新过该槽位，旧的物品不再发送
+            if (session.isDelivered(delayedItem.slot)) {
+                iterator.remove();
+                continue;
+            }
+            if (!byteBudget.isCheap(delayedItem.weight)) {
+                if (heavyThisTick >= heavyItemsPerTick || !byteBudget.tryConsume(playerId, delayedItem.weight, tick)) {
+                    continue;
+                }
+                heavyThisTick++;
+            }
+            batch.add(delayedItem);
+            batchBytes += delayedItem.weight;
+        }
+
+        int packetsThisTick = 0;
+        if (shouldCoalesce(batch, batchBytes) && sender.sendCoalesced(batch, batchBytes)) {
+            items.removeAll(batch);
+            packetsThisTick = 1;
+        } else {
+            for (PacketHandler.DelayedItem delayedItem : batch) {
+                if (sender.sendSlot(delayedItem)) {
+                    items.remove(delayedItem);
+                }
+                // 发送失败的物品同样占用预算，避免同一物品在一个tick内反复重试
+                packetsThisTick++;
+            }
+        }
+
+        if (items.isEmpty()) {
+            sender.finished();
+            finish();
+        }
+        return packetsThisTick;
+    }
+
+    // 一个tick内的多个物品合并为WINDOW_ITEMS是否更便宜：每个数据包的固定开销按配置折算为字节
+    private boolean shouldCoalesce(List<PacketHandler.DelayedItem> batch, long batchBytes) {
+        if (!coalesce || batch.size() < 2) return false;
+        long coalescedBytes = session.estimateCoalescedBytes(batch, batchBytes);
+        if (coalescedBytes < 0) return false;
+        long separateCost = batch.size() * (long) (itemPacketCostBytes + WindowSession.SET_SLOT_HEADER_BYTES) + batchBytes;
+        return itemPacketCostBytes + coalescedBytes < separateCost;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public void cancel() {
+        finish();
+    }
+
+    private void finish() {
+        if (!done) {
+            done = true;
+            session.complete(this);
+        }
+    }
+}
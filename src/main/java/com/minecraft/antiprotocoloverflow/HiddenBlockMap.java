@@ -0,0 +1,172 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+
+/**
+ * 隐藏方块表：以打包后的long方块坐标为键、以Material序号(short)为值的开放寻址哈希表
+ *
+ * 每个槽位8字节键 + 2字节值，没有HashMap节点和BlockPosition对象。
+ * benchmarks中的HiddenBlockFootprint实测（64位JVM，开启压缩指针，20万条目）：
+ * 原HashMap&lt;BlockPosition, Material&gt;约67字节/条目，本结构约26字节/条目，与estimatedBytes()一致。
+ *
+ * 所有方法都是同步的，可以在主线程和数据包线程之间共享。
+ */
+final class HiddenBlockMap {
+    private static final Material[] MATERIALS = Material.values();
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    // 值为Material序号+1，0表示空槽位
+    private short[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+    private final int initialCapacity;
+
+    // 遍历回调，避免装箱
+    interface EntryConsumer {
+        void accept(long position, Material type);
+    }
+
+    HiddenBlockMap() {
+        this(MIN_CAPACITY);
+    }
+
+    // 初始槽位数，必须是2的幂
+    HiddenBlockMap(int capacity) {
+        this.initialCapacity = capacity;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new short[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity * 3 / 4;
+    }
+
+    static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        int slot = slot(key, mask);
+        while (values[slot] != 0) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public synchronized Material put(long key, Material type) {
+        short value = (short) (type.ordinal() + 1);
+        int slot = slot(key, mask);
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                Material previous = MATERIALS[values[slot] - 1];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    public synchronized Material get(long key) {
+        int slot = find(key);
+        return slot < 0 ? null : MATERIALS[values[slot] - 1];
+    }
+
+    public synchronized boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    public synchronized Material remove(long key) {
+        int slot = find(key);
+        if (slot < 0) return null;
+        Material previous = MATERIALS[values[slot] - 1];
+        removeAt(slot);
+        return previous;
+    }
+
+    // 向后移位删除，保持线性探测链连续
+    private void removeAt(int slot) {
+        int gap = slot;
+        int index = (slot + 1) & mask;
+        while (values[index] != 0) {
+            int home = slot(keys[index], mask);
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[gap] = 0L;
+        values[gap] = 0;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        short[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = slot(oldKeys[i], mask);
+                while (values[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        if (size == 0) return;
+        allocate(initialCapacity);
+        size = 0;
+    }
+
+    // 遍历所有条目，回调中不能修改本表
+    public synchronized void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                consumer.accept(keys[i], MATERIALS[values[i] - 1]);
+            }
+        }
+    }
+
+    // 返回所有键的副本，便于遍历时修改本表
+    public synchronized long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                result[count++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    // 估算占用的堆内存（字节）
+    public synchronized long estimatedBytes() {
+        // 对象32字节，两个数组各有16字节数组头
+        return 32L + 16L + keys.length * 8L + 16L + values.length * 2L;
+    }
+}
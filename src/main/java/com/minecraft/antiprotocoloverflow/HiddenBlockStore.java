@@ -0,0 +1,619 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 隐藏方块存储
+ * 隐藏方块大多零散分布（各处的箱子、告示牌），每个区块段只有一两个，因此默认都放在一个扁平的HiddenBlockMap中，
+ * 另用一个以区块段键为键的计数表记录每个区块段中的扁平条目数；某个区块段的方块数达到SPLIT_THRESHOLD后，
+ * 才把该段的方块移入单独的HiddenBlockMap，距离查询和整区块移除可以直接按段处理。
+ * 距离查询对密集的区块段只访问与查询球体相交的段；零散的方块先用计数表判断附近是否有，有时在逐格查找和遍历扁平表中取开销小的一种。
+ *
+ * 超出内存上限时可以整区块淘汰：丢弃区块内的隐藏方块记录，只保留区块键作为标记，玩家靠近时再根据受保护方块索引恢复。
+ *
+ * 扁平表、计数表和段表都是以long为键的开放寻址表，不产生HashMap节点和Long对象。
+ * 零散分布时每个方块占用扁平表一个槽位和计数表一个槽位（各为8字节键 + 2字节值），没有每段的对象开销。
+ * HiddenBlockFootprint实测：零散分布约52字节/条目，密集分布约20字节/条目，原HashMap约67字节/条目。
+ *
+ * 所有方法都是同步的，可以在主线程和数据包线程之间共享。
+ */
+final class HiddenBlockStore {
+    // 区块段的方块数达到该值后拆分为单独的表
+    static final int SPLIT_THRESHOLD = 16;
+    private static final int MIN_SECTION_CAPACITY = 8;
+    private static final int SECTION_BLOCK_CAPACITY = 32;
+    private static final int SECTION_VOLUME = 4096;
+
+    // 零散的隐藏方块
+    private HiddenBlockMap flat = new HiddenBlockMap();
+    // 区块段键 -> 扁平表中该段的方块数，只记录未拆分的段
+    private final SectionCounts flatCounts = new SectionCounts();
+    // 已拆分的区块段键 -> 段内隐藏方块，开放寻址，值为null表示空槽位
+    private long[] sectionKeys;
+    private HiddenBlockMap[] sectionMaps;
+    private int sectionCount;
+    private int sectionMask;
+    private int sectionResizeAt;
+    private int size;
+    // 已淘汰的区块键
+    private final Set<Long> evictedChunks = new HashSet<>();
+
+    // 区块段键 -> 方块数的开放寻址表
+    private static final class SectionCounts {
+        private long[] keys;
+        // 0表示空槽位
+        private short[] counts;
+        private int size;
+        private int mask;
+        private int resizeAt;
+
+        SectionCounts() {
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            counts = new short[capacity];
+            mask = capacity - 1;
+            resizeAt = capacity * 3 / 4;
+        }
+
+        int get(long key) {
+            int slot = HiddenBlockMap.slot(key, mask);
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) return counts[slot];
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        // 计数加一，返回新的计数
+        int increment(long key) {
+            int slot = HiddenBlockMap.slot(key, mask);
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) return ++counts[slot];
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            counts[slot] = 1;
+            if (++size > resizeAt) {
+                rehash(keys.length << 1);
+            }
+            return 1;
+        }
+
+        // 计数减一，减到0时移除
+        void decrement(long key) {
+            int slot = HiddenBlockMap.slot(key, mask);
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) {
+                    if (--counts[slot] == 0) {
+                        counts[slot] = 1;
+                        removeAt(slot);
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        // 移除并返回计数
+        int remove(long key) {
+            int slot = HiddenBlockMap.slot(key, mask);
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) {
+                    int count = counts[slot];
+                    removeAt(slot);
+                    return count;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        // 向后移位删除，保持线性探测链连续
+        private void removeAt(int slot) {
+            int gap = slot;
+            int index = (slot + 1) & mask;
+            while (counts[index] != 0) {
+                int home = HiddenBlockMap.slot(keys[index], mask);
+                if (((index - home) & mask) >= ((index - gap) & mask)) {
+                    keys[gap] = keys[index];
+                    counts[gap] = counts[index];
+                    gap = index;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[gap] = 0L;
+            counts[gap] = 0;
+            size--;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            short[] oldCounts = counts;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = HiddenBlockMap.slot(oldKeys[i], mask);
+                    while (counts[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        void clear() {
+            allocate(16);
+            size = 0;
+        }
+
+        long estimatedBytes() {
+            return 32L + 16L + keys.length * 8L + 16L + counts.length * 2L;
+        }
+    }
+
+    HiddenBlockStore() {
+        allocateSections(MIN_SECTION_CAPACITY);
+    }
+
+    private void allocateSections(int capacity) {
+        sectionKeys = new long[capacity];
+        sectionMaps = new HiddenBlockMap[capacity];
+        sectionMask = capacity - 1;
+        sectionResizeAt = capacity * 3 / 4;
+    }
+
+    private int findSection(long sectionKey) {
+        int slot = HiddenBlockMap.slot(sectionKey, sectionMask);
+        while (sectionMaps[slot] != null) {
+            if (sectionKeys[slot] == sectionKey) return slot;
+            slot = (slot + 1) & sectionMask;
+        }
+        return -1;
+    }
+
+    private HiddenBlockMap section(long sectionKey) {
+        int slot = findSection(sectionKey);
+        return slot < 0 ? null : sectionMaps[slot];
+    }
+
+    private HiddenBlockMap createSection(long sectionKey) {
+        int slot = HiddenBlockMap.slot(sectionKey, sectionMask);
+        while (sectionMaps[slot] != null) {
+            slot = (slot + 1) & sectionMask;
+        }
+        HiddenBlockMap section = new HiddenBlockMap(SECTION_BLOCK_CAPACITY);
+        sectionKeys[slot] = sectionKey;
+        sectionMaps[slot] = section;
+        if (++sectionCount > sectionResizeAt) {
+            rehashSections(sectionKeys.length << 1);
+        }
+        return section;
+    }
+
+    private HiddenBlockMap removeSection(long sectionKey) {
+        int slot = findSection(sectionKey);
+        if (slot < 0) return null;
+        HiddenBlockMap section = sectionMaps[slot];
+        removeSectionAt(slot);
+        return section;
+    }
+
+    // 向后移位删除，保持线性探测链连续
+    private void removeSectionAt(int slot) {
+        int gap = slot;
+        int index = (slot + 1) & sectionMask;
+        while (sectionMaps[index] != null) {
+            int home = HiddenBlockMap.slot(sectionKeys[index], sectionMask);
+            if (((index - home) & sectionMask) >= ((index - gap) & sectionMask)) {
+                sectionKeys[gap] = sectionKeys[index];
+                sectionMaps[gap] = sectionMaps[index];
+                gap = index;
+            }
+            index = (index + 1) & sectionMask;
+        }
+        sectionKeys[gap] = 0L;
+        sectionMaps[gap] = null;
+        sectionCount--;
+    }
+
+    private void rehashSections(int capacity) {
+        long[] oldKeys = sectionKeys;
+        HiddenBlockMap[] oldMaps = sectionMaps;
+        allocateSections(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldMaps[i] != null) {
+                int slot = HiddenBlockMap.slot(oldKeys[i], sectionMask);
+                while (sectionMaps[slot] != null) {
+                    slot = (slot + 1) & sectionMask;
+                }
+                sectionKeys[slot] = oldKeys[i];
+                sectionMaps[slot] = oldMaps[i];
+            }
+        }
+    }
+
+    public synchronized Material put(long key, Material type) {
+        long sectionKey = BlockKeys.sectionKeyOf(key);
+        HiddenBlockMap section = section(sectionKey);
+        if (section != null) {
+            Material previous = section.put(key, type);
+            if (previous == null) {
+                size++;
+            }
+            return previous;
+        }
+        Material previous = flat.put(key, type);
+        if (previous == null) {
+            size++;
+            if (flatCounts.increment(sectionKey) >= SPLIT_THRESHOLD) {
+                split(sectionKey);
+            }
+        }
+        return previous;
+    }
+
+    // 把扁平表中某个区块段的方块移入单独的表
+    private void split(long sectionKey) {
+        int remaining = flatCounts.remove(sectionKey);
+        HiddenBlockMap section = createSection(sectionKey);
+        int baseX = BlockKeys.unpackX(sectionKey) << 4;
+        int baseY = BlockKeys.unpackY(sectionKey) << 4;
+        int baseZ = BlockKeys.unpackZ(sectionKey) << 4;
+        for (int index = 0; index < SECTION_VOLUME && remaining > 0; index++) {
+            long key = BlockKeys.pack(baseX + (index & 15), baseY + (index >> 8), baseZ + ((index >> 4) & 15));
+            Material type = flat.remove(key);
+            if (type != null) {
+                section.put(key, type);
+                remaining--;
+            }
+        }
+    }
+
+    public synchronized Material get(long key) {
+        HiddenBlockMap section = section(BlockKeys.sectionKeyOf(key));
+        return section == null ? flat.get(key) : section.get(key);
+    }
+
+    public synchronized boolean containsKey(long key) {
+        HiddenBlockMap section = section(BlockKeys.sectionKeyOf(key));
+        return section == null ? flat.containsKey(key) : section.containsKey(key);
+    }
+
+    public synchronized Material remove(long key) {
+        long sectionKey = BlockKeys.sectionKeyOf(key);
+        int slot = findSection(sectionKey);
+        if (slot < 0) {
+            Material previous = flat.remove(key);
+            if (previous != null) {
+                size--;
+                flatCounts.decrement(sectionKey);
+            }
+            return previous;
+        }
+        HiddenBlockMap section = sectionMaps[slot];
+        Material previous = section.remove(key);
+        if (previous != null) {
+            size--;
+            if (section.isEmpty()) {
+                removeSectionAt(slot);
+            }
+        }
+        return previous;
+    }
+
+    // 移除某个区块内的所有隐藏方块
+    public synchronized void removeChunk(int chunkX, int chunkZ) {
+        evictedChunks.remove(BlockKeys.chunkKey(chunkX, chunkZ));
+        removeSections(chunkX, chunkZ);
+    }
+
+    private int removeSections(int chunkX, int chunkZ) {
+        // 先收集再删除，删除时的移位会改变槽位
+        long[] matched = new long[sectionCount];
+        int count = 0;
+        for (int i = 0; i < sectionKeys.length; i++) {
+            if (sectionMaps[i] != null && BlockKeys.unpackX(sectionKeys[i]) == chunkX && BlockKeys.unpackZ(sectionKeys[i]) == chunkZ) {
+                matched[count++] = sectionKeys[i];
+            }
+        }
+        int removed = 0;
+        for (int i = 0; i < count; i++) {
+            removed += removeSection(matched[i]).size();
+        }
+        size -= removed;
+        return removed + removeFlat(chunkX, chunkZ, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // 移除扁平表中某个区块在[minSectionY, maxSectionY]范围内的方块，返回移除的数量
+    private int removeFlat(int chunkX, int chunkZ, int minSectionY, int maxSectionY) {
+        if (flat.isEmpty()) return 0;
+        // 先从计数表中找出该区块有零散方块的区块段
+        long[] matched = new long[flatCounts.size];
+        int count = 0;
+        for (int i = 0; i < flatCounts.keys.length; i++) {
+            if (flatCounts.counts[i] == 0) continue;
+            long sectionKey = flatCounts.keys[i];
+            int sy = BlockKeys.unpackY(sectionKey);
+            if (BlockKeys.unpackX(sectionKey) == chunkX && BlockKeys.unpackZ(sectionKey) == chunkZ
+                    && sy >= minSectionY && sy <= maxSectionY) {
+                matched[count++] = sectionKey;
+            }
+        }
+        if (count == 0) return 0;
+        int removed = 0;
+        if ((long) count * SECTION_VOLUME < flat.size()) {
+            // 逐格查找
+            for (int i = 0; i < count; i++) {
+                int remaining = flatCounts.remove(matched[i]);
+                removed += remaining;
+                int baseX = chunkX << 4;
+                int baseY = BlockKeys.unpackY(matched[i]) << 4;
+                int baseZ = chunkZ << 4;
+                for (int index = 0; index < SECTION_VOLUME && remaining > 0; index++) {
+                    if (flat.remove(BlockKeys.pack(baseX + (index & 15), baseY + (index >> 8), baseZ + ((index >> 4) & 15))) != null) {
+                        remaining--;
+                    }
+                }
+            }
+        } else {
+            // 遍历扁平表
+            for (long key : flat.keys()) {
+                int sy = BlockKeys.unpackY(key) >> 4;
+                if (BlockKeys.unpackX(key) >> 4 == chunkX && BlockKeys.unpackZ(key) >> 4 == chunkZ
+                        && sy >= minSectionY && sy <= maxSectionY) {
+                    flat.remove(key);
+                    removed++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                flatCounts.remove(matched[i]);
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    // 移除某个区块内的所有隐藏方块，只查找该区块在[minSectionY, maxSectionY]范围内的区块段
+    public synchronized void removeChunk(int chunkX, int chunkZ, int minSectionY, int maxSectionY) {
+        evictedChunks.remove(BlockKeys.chunkKey(chunkX, chunkZ));
+        if (size == 0) return;
+        if (maxSectionY - minSectionY + 1 >= sectionCount) {
+            removeChunk(chunkX, chunkZ);
+            return;
+        }
+        for (int sy = minSectionY; sy <= maxSectionY; sy++) {
+            HiddenBlockMap section = removeSection(BlockKeys.pack(chunkX, sy, chunkZ));
+            if (section != null) {
+                size -= section.size();
+            }
+        }
+        removeFlat(chunkX, chunkZ, minSectionY, maxSectionY);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        allocateSections(MIN_SECTION_CAPACITY);
+        sectionCount = 0;
+        flat = new HiddenBlockMap();
+        flatCounts.clear();
+        evictedChunks.clear();
+        size = 0;
+    }
+
+    // 各区块中的隐藏方块数量：区块键 -> 数量
+    public synchronized Map<Long, Integer> chunkSizes() {
+        Map<Long, Integer> result = new HashMap<>();
+        for (int i = 0; i < sectionKeys.length; i++) {
+            if (sectionMaps[i] == null) continue;
+            long sectionKey = sectionKeys[i];
+            result.merge(BlockKeys.chunkKey(BlockKeys.unpackX(sectionKey), BlockKeys.unpackZ(sectionKey)),
+                    sectionMaps[i].size(), Integer::sum);
+        }
+        for (int i = 0; i < flatCounts.keys.length; i++) {
+            if (flatCounts.counts[i] == 0) continue;
+            long sectionKey = flatCounts.keys[i];
+            result.merge(BlockKeys.chunkKey(BlockKeys.unpackX(sectionKey), BlockKeys.unpackZ(sectionKey)),
+                    (int) flatCounts.counts[i], Integer::sum);
+        }
+        return result;
+    }
+
+    // 淘汰区块：丢弃区块内的隐藏方块记录并保留标记，返回丢弃的记录数
+    public synchronized int evictChunk(long chunkKey) {
+        int removed = removeSections(BlockKeys.chunkX(chunkKey), BlockKeys.chunkZ(chunkKey));
+        if (removed > 0) {
+            evictedChunks.add(chunkKey);
+        }
+        return removed;
+    }
+
+    public synchronized boolean hasEvictedChunks() {
+        return !evictedChunks.isEmpty();
+    }
+
+    public synchronized int getEvictedChunkCount() {
+        return evictedChunks.size();
+    }
+
+    // 取出区块中心与(x, z)水平距离不超过radius的已淘汰区块，同时清除其标记
+    public synchronized long[] takeEvictedChunksWithin(double x, double z, double radius) {
+        if (evictedChunks.isEmpty()) return new long[0];
+        double radiusSq = radius * radius;
+        long[] result = new long[evictedChunks.size()];
+        int count = 0;
+        Iterator<Long> iterator = evictedChunks.iterator();
+        while (iterator.hasNext()) {
+            long chunkKey = iterator.next();
+            double dx = (BlockKeys.chunkX(chunkKey) << 4) + 8 - x;
+            double dz = (BlockKeys.chunkZ(chunkKey) << 4) + 8 - z;
+            if (dx * dx + dz * dz <= radiusSq) {
+                result[count++] = chunkKey;
+                iterator.remove();
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    // 遍历所有条目，回调中不能修改本存储
+    public synchronized void forEach(HiddenBlockMap.EntryConsumer consumer) {
+        flat.forEach(consumer);
+        for (HiddenBlockMap section : sectionMaps) {
+            if (section != null) {
+                section.forEach(consumer);
+            }
+        }
+    }
+
+    // 遍历与(x, y, z)距离不超过radius的条目，回调中不能修改本存储
+    public synchronized void forEachWithin(double x, double y, double z, double radius, HiddenBlockMap.EntryConsumer consumer) {
+        if (size == 0) return;
+        double radiusSq = radius * radius;
+        int minX = (int) Math.floor(x - radius) >> 4;
+        int maxX = (int) Math.floor(x + radius) >> 4;
+        int minY = (int) Math.floor(y - radius) >> 4;
+        int maxY = (int) Math.floor(y + radius) >> 4;
+        int minZ = (int) Math.floor(z - radius) >> 4;
+        int maxZ = (int) Math.floor(z + radius) >> 4;
+
+        HiddenBlockMap.EntryConsumer filter = (position, type) -> {
+            double dx = BlockKeys.unpackX(position) - x;
+            double dy = BlockKeys.unpackY(position) - y;
+            double dz = BlockKeys.unpackZ(position) - z;
+            if (dx * dx + dy * dy + dz * dz <= radiusSq) {
+                consumer.accept(position, type);
+            }
+        };
+
+        long rangeVolume = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (rangeVolume <= sectionCount) {
+            // 查询范围较小，直接按段坐标查找
+            for (int sx = minX; sx <= maxX; sx++) {
+                for (int sz = minZ; sz <= maxZ; sz++) {
+                    for (int sy = minY; sy <= maxY; sy++) {
+                        if (!sectionIntersects(sx, sy, sz, x, y, z, radiusSq)) continue;
+                        HiddenBlockMap section = section(BlockKeys.pack(sx, sy, sz));
+                        if (section != null) {
+                            section.forEach(filter);
+                        }
+                    }
+                }
+            }
+        } else {
+            // 隐藏的区块段较少，遍历已有的段
+            for (int i = 0; i < sectionKeys.length; i++) {
+                if (sectionMaps[i] == null) continue;
+                long sectionKey = sectionKeys[i];
+                int sx = BlockKeys.unpackX(sectionKey);
+                int sy = BlockKeys.unpackY(sectionKey);
+                int sz = BlockKeys.unpackZ(sectionKey);
+                if (sectionIntersects(sx, sy, sz, x, y, z, radiusSq)) {
+                    sectionMaps[i].forEach(filter);
+                }
+            }
+        }
+        forEachFlatWithin(x, y, z, radiusSq, minX, maxX, minY, maxY, minZ, maxZ, filter);
+    }
+
+    // 零散方块的距离查询：计数表中没有相交的区块段时直接跳过，否则在逐格查找和遍历扁平表中取开销小的一种
+    private void forEachFlatWithin(double x, double y, double z, double radiusSq,
+                                   int minX, int maxX, int minY, int maxY, int minZ, int maxZ,
+                                   HiddenBlockMap.EntryConsumer filter) {
+        if (flat.isEmpty()) return;
+        long[] matched = new long[Math.min(flatCounts.size, 64)];
+        int count = 0;
+        for (int i = 0; i < flatCounts.keys.length; i++) {
+            if (flatCounts.counts[i] == 0) continue;
+            long sectionKey = flatCounts.keys[i];
+            int sx = BlockKeys.unpackX(sectionKey);
+            int sy = BlockKeys.unpackY(sectionKey);
+            int sz = BlockKeys.unpackZ(sectionKey);
+            if (sx < minX || sx > maxX || sy < minY || sy > maxY || sz < minZ || sz > maxZ) continue;
+            if (!sectionIntersects(sx, sy, sz, x, y, z, radiusSq)) continue;
+            if (count == matched.length || (long) (count + 1) * SECTION_VOLUME >= flat.size()) {
+                // 相交的区块段较多，遍历扁平表更快
+                flat.forEach(filter);
+                return;
+            }
+            matched[count++] = sectionKey;
+        }
+        for (int i = 0; i < count; i++) {
+            long sectionKey = matched[i];
+            int remaining = flatCounts.get(sectionKey);
+            int baseX = BlockKeys.unpackX(sectionKey) << 4;
+            int baseY = BlockKeys.unpackY(sectionKey) << 4;
+            int baseZ = BlockKeys.unpackZ(sectionKey) << 4;
+            for (int index = 0; index < SECTION_VOLUME && remaining > 0; index++) {
+                long key = BlockKeys.pack(baseX + (index & 15), baseY + (index >> 8), baseZ + ((index >> 4) & 15));
+                Material type = flat.get(key);
+                if (type != null) {
+                    filter.accept(key, type);
+                    remaining--;
+                }
+            }
+        }
+    }
+
+    // 判断区块段的包围盒是否与查询球体相交
+    private static boolean sectionIntersects(int sx, int sy, int sz, double x, double y, double z, double radiusSq) {
+        double dx = axisDistance(sx << 4, x);
+        double dy = axisDistance(sy << 4, y);
+        double dz = axisDistance(sz << 4, z);
+        return dx * dx + dy * dy + dz * dz <= radiusSq;
+    }
+
+    private static double axisDistance(int min, double value) {
+        if (value < min) return min - value;
+        int max = min + 15;
+        if (value > max) return value - max;
+        return 0;
+    }
+
+    // 返回所有键的副本，便于遍历时修改本存储
+    public synchronized long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        for (long key : flat.keys()) {
+            result[count++] = key;
+        }
+        for (HiddenBlockMap section : sectionMaps) {
+            if (section == null) continue;
+            for (long key : section.keys()) {
+                result[count++] = key;
+            }
+        }
+        return result;
+    }
+
+    // 估算占用的堆内存（字节）
+    public synchronized long estimatedBytes() {
+        // 本对象和段表的两个数组（数组头各16字节）
+        long bytes = 48L + 16L + sectionKeys.length * 8L + 16L + sectionMaps.length * 4L;
+        bytes += flat.estimatedBytes() + flatCounts.estimatedBytes();
+        for (HiddenBlockMap section : sectionMaps) {
+            if (section != null) {
+                bytes += section.estimatedBytes();
+            }
+        }
+        // 已淘汰区块的标记按HashSet节点和Long键计算
+        bytes += evictedChunks.size() * 48L;
+        return bytes;
+    }
+}
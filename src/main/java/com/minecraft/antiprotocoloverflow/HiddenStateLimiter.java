@@ -0,0 +1,163 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 隐藏方块记录的内存上限
+ * 定期检查每个玩家和全体玩家的隐藏方块数量，超出上限时从离玩家最远的区块开始整区块淘汰，
+ * 淘汰后的区块只保留标记，玩家靠近时由调用方根据受保护方块索引恢复。
+ * 靠近玩家的区块不会被淘汰，避免淘汰后立即恢复造成反复。
+ *
+ * 只使用坐标和隐藏方块表，不访问世界和玩家对象，可以单独运行。
+ * 调用方在主线程记录玩家位置和每个表的大小，sweep可以在异步线程执行：隐藏方块表的方法都是同步的，
+ * 按区块统计、排序和淘汰都不占用主线程。
+ */
+public class HiddenStateLimiter {
+    // 超出上限后淘汰到上限的该比例，避免每次检查都刚好在上限附近反复淘汰
+    private static final double TARGET_RATIO = 0.9;
+
+    private volatile int maxBlocksPerPlayer;
+    private volatile long maxBlocksTotal;
+    private final double keepRadius;
+
+    private volatile long estimatedBytes;
+    private volatile long trackedBlocks;
+    private volatile int evictedChunkCount;
+    private long evictedBlocksTotal;
+    private long evictedChunksTotal;
+
+    // 参与检查的一个隐藏方块表，以及记录时表的大小和所属玩家的位置
+    static final class Holder {
+        final HiddenBlockStore store;
+        final int size;
+        final boolean inWorld;
+        final double x;
+        final double z;
+
+        /**
+         * @param inWorld 玩家是否在该表所属的世界，不在时表中所有区块都按最远处理
+         */
+        Holder(HiddenBlockStore store, boolean inWorld, double x, double z) {
+            this.store = store;
+            this.size = store.size();
+            this.inWorld = inWorld;
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    /**
+     * @param keepRadius 与玩家水平距离不超过该值的区块不淘汰
+     */
+    HiddenStateLimiter(int maxBlocksPerPlayer, long maxBlocksTotal, double keepRadius) {
+        this.maxBlocksPerPlayer = maxBlocksPerPlayer;
+        this.maxBlocksTotal = maxBlocksTotal;
+        this.keepRadius = keepRadius;
+    }
+
+    // 上限不大于0表示不限制
+    void configure(int maxBlocksPerPlayer, long maxBlocksTotal) {
+        this.maxBlocksPerPlayer = maxBlocksPerPlayer;
+        this.maxBlocksTotal = maxBlocksTotal;
+    }
+
+    /**
+     * 检查所有隐藏方块表并淘汰超出上限的部分，按记录时的大小计算需要淘汰的数量
+     * @return 本次淘汰的隐藏方块记录数
+     */
+    synchronized int sweep(List<Holder> holders) {
+        long total = 0;
+        for (Holder holder : holders) {
+            total += holder.size;
+        }
+
+        // 超出全局上限时所有玩家按相同比例缩减
+        double globalFactor = 1.0;
+        long globalCap = maxBlocksTotal;
+        if (globalCap > 0 && total > globalCap) {
+            globalFactor = globalCap * TARGET_RATIO / total;
+        }
+        int playerCap = maxBlocksPerPlayer;
+
+        int evicted = 0;
+        for (Holder holder : holders) {
+            int size = holder.size;
+            long target = size;
+            if (playerCap > 0 && size > playerCap) {
+                target = (long) (playerCap * TARGET_RATIO);
+            }
+            if (globalFactor < 1.0) {
+                target = Math.min(target, (long) (size * globalFactor));
+            }
+            if (target < size) {
+                evicted += evictFarthest(holder, size - target);
+            }
+        }
+
+        long bytes = 0;
+        long blocks = 0;
+        int markers = 0;
+        for (Holder holder : holders) {
+            bytes += holder.store.estimatedBytes();
+            blocks += holder.store.size();
+            markers += holder.store.getEvictedChunkCount();
+        }
+        estimatedBytes = bytes;
+        trackedBlocks = blocks;
+        evictedChunkCount = markers;
+        evictedBlocksTotal += evicted;
+        return evicted;
+    }
+
+    // 从最远的区块开始淘汰，直到丢弃的记录数达到amount或只剩下靠近玩家的区块
+    private int evictFarthest(Holder holder, long amount) {
+        Map<Long, Integer> chunkSizes = holder.store.chunkSizes();
+        List<long[]> candidates = new ArrayList<>(chunkSizes.size());
+        double keepRadiusSq = keepRadius * keepRadius;
+        for (Long chunkKey : chunkSizes.keySet()) {
+            double distanceSq = Double.MAX_VALUE;
+            if (holder.inWorld) {
+                double dx = (BlockKeys.chunkX(chunkKey) << 4) + 8 - holder.x;
+                double dz = (BlockKeys.chunkZ(chunkKey) << 4) + 8 - holder.z;
+                distanceSq = dx * dx + dz * dz;
+                if (distanceSq <= keepRadiusSq) continue;
+            }
+            candidates.add(new long[]{chunkKey, Double.doubleToLongBits(distanceSq)});
+        }
+        // 非负double的位模式与数值大小顺序一致
+        candidates.sort((a, b) -> Long.compare(b[1], a[1]));
+
+        int removed = 0;
+        for (long[] candidate : candidates) {
+            if (removed >= amount) break;
+            removed += holder.store.evictChunk(candidate[0]);
+            evictedChunksTotal++;
+        }
+        return removed;
+    }
+
+    // 最近一次检查时所有隐藏方块表估算占用的堆内存（字节）
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    // 最近一次检查时的隐藏方块记录数
+    public long getTrackedBlocks() {
+        return trackedBlocks;
+    }
+
+    // 最近一次检查时已淘汰、等待恢复的区块数量
+    public int getEvictedChunkCount() {
+        return evictedChunkCount;
+    }
+
+    public synchronized long getEvictedBlocksTotal() {
+        return evictedBlocksTotal;
+    }
+
+    public synchronized long getEvictedChunksTotal() {
+        return evictedChunksTotal;
+    }
+}
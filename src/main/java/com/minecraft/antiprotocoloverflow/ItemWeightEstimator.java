@@ -0,0 +1,114 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.nbt.NbtBase;
+import com.comphenix.protocol.wrappers.nbt.io.NbtBinarySerializer;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Container;
+import org.bukkit.block.Sign;
+import org.bukkit.block.sign.Side;
+import org.bukkit.block.sign.SignSide;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+
+/**
+ * 物品与方块实体的序列化大小估算
+ * 没有物品元数据的物品按固定的小数值计算；带元数据的物品（写过的书、装满的潜影盒等）按元数据的序列化文本长度估算。
+ * 本身不缓存结果（以物品副本为键的缓存每次查询都要复制和比较整个物品）：延迟物品在创建时估算一次并保存在DelayedItem中，
+ * 潜影盒的估算结果随分类结果缓存在ShulkerCache中。
+ */
+public class ItemWeightEstimator {
+    // 物品ID、数量和空组件的大致字节数
+    static final int BASE_ITEM_BYTES = 8;
+
+    // 估算物品序列化后的字节数
+    public int weigh(ItemStack item) {
+        if (item == null) return 1;
+        if (!item.hasItemMeta()) return BASE_ITEM_BYTES;
+
+        int bytes = BASE_ITEM_BYTES;
+        ItemMeta meta = item.getItemMeta();
+        if (meta != null) {
+            bytes += meta.getAsString().length();
+        }
+        return bytes;
+    }
+
+    // 估算方块显示时随方块一起发送的方块实体数据字节数
+    public int weighBlockEntity(Block block) {
+        BlockState state = block.getState();
+        if (state instanceof Sign) {
+            return weighSign((Sign) state);
+        }
+        return 0;
+    }
+
+    /**
+     * 估算受保护方块携带的数据量：容器内物品（潜影盒、写过的书等按序列化大小计算）和告示牌文字
+     * 末影箱等不保存内容的方块为0，应使用方块状态快照，必须在主线程调用
+     */
+    public int weighPayload(BlockState state) {
+        Inventory inventory = null;
+        if (state instanceof Container) {
+            inventory = ((Container) state).getSnapshotInventory();
+        } else if (state instanceof Sign) {
+            return weighSign((Sign) state);
+        }
+        if (inventory == null) return 0;
+
+        int bytes = 0;
+        for (ItemStack item : inventory.getContents()) {
+            if (item != null) {
+                bytes += weigh(item);
+            }
+        }
+        return bytes;
+    }
+
+    // 计算数据包中NBT数据按网络格式序列化后的字节数，没有NBT数据时返回0
+    public static int weighNbt(PacketContainer packet) {
+        try {
+            NbtBase<?> nbt = packet.getNbtModifier().read(0);
+            if (nbt == null) return 0;
+            CountingStream counter = new CountingStream();
+            NbtBinarySerializer.DEFAULT.serialize(nbt, new DataOutputStream(counter));
+            return counter.count;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    // 只计数不保存的输出流
+    private static final class CountingStream extends OutputStream {
+        int count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private static int weighSign(Sign sign) {
+        return 16 + linesLength(sign.getSide(Side.FRONT)) + linesLength(sign.getSide(Side.BACK));
+    }
+
+    private static int linesLength(SignSide side) {
+        int length = 0;
+        for (String line : side.getLines()) {
+            if (line != null) {
+                length += line.length();
+            }
+        }
+        return length;
+    }
+}
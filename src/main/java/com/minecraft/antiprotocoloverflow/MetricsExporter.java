@@ -0,0 +1,238 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Prometheus指标导出
+ * 在本地地址上启动一个内置HTTP服务，以Prometheus文本格式输出数据包统计和插件队列状态。
+ *
+ * 数据包计数和耗时直方图本身是线程安全的，请求到来时直接读取；
+ * 依赖世界和玩家数据的瞬时值由主线程定期采样为快照，HTTP线程只读取最近一次快照，不访问Bukkit对象。
+ */
+public class MetricsExporter {
+    // 第一个单独输出的直方图桶（2^10纳秒，约1微秒）
+    private static final int MIN_EXPORTED_BUCKET = 10;
+
+    private final JavaPlugin plugin;
+    private final PacketStats stats;
+    // 在主线程调用，向列表中加入当前的瞬时值
+    private final Consumer<List<Sample>> sampler;
+    private HttpServer server;
+    private ExecutorService executor;
+    private BukkitTask sampleTask;
+    private volatile List<Sample> snapshot = Collections.emptyList();
+
+    // 一个瞬时值样本
+    public static final class Sample {
+        final String name;
+        final String help;
+        final String type;
+        final String labels;
+        final double value;
+
+        private Sample(String name, String help, String type, String labels, double value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labels = labels;
+            this.value = value;
+        }
+
+        public static Sample gauge(String name, String help, double value) {
+            return new Sample(name, help, "gauge", "", value);
+        }
+
+        // 带一个标签的瞬时值
+        public static Sample gauge(String name, String help, String label, String labelValue, double value) {
+            return new Sample(name, help, "gauge", label + "=\"" + escape(labelValue) + "\"", value);
+        }
+
+        public static Sample counter(String name, String help, double value) {
+            return new Sample(name, help, "counter", "", value);
+        }
+    }
+
+    public MetricsExporter(JavaPlugin plugin, PacketStats stats, Consumer<List<Sample>> sampler) {
+        this.plugin = plugin;
+        this.stats = stats;
+        this.sampler = sampler;
+    }
+
+    /**
+     * 启动HTTP服务和采样任务，已启动时先停止
+     * @return 是否启动成功
+     */
+    public synchronized boolean start(String host, int port, String path, long sampleIntervalTicks) {
+        stop();
+        try {
+            HttpServer httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+            httpServer.createContext(path.startsWith("/") ? path : "/" + path, this::handle);
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AntiProtocolOverflow-Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            httpServer.setExecutor(executor);
+            httpServer.start();
+            server = httpServer;
+        } catch (IOException | IllegalArgumentException e) {
+            plugin.getLogger().warning("启动指标导出服务失败 (" + host + ":" + port + "): " + e.getMessage());
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            return false;
+        }
+
+        sample();
+        long interval = Math.max(1L, sampleIntervalTicks);
+        sampleTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::sample, interval, interval);
+        plugin.getLogger().info("指标导出服务已启动: http://" + host + ":" + port + path);
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (sampleTask != null) {
+            sampleTask.cancel();
+            sampleTask = null;
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        snapshot = Collections.emptyList();
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    // 主线程采样
+    private void sample() {
+        List<Sample> samples = new ArrayList<>();
+        try {
+            sampler.accept(samples);
+        } catch (Exception e) {
+            plugin.getLogger().fine("采样指标时出错: " + e.getMessage());
+        }
+        snapshot = samples;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // 生成Prometheus文本格式的全部指标
+    String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        Map<String, PacketStats.Counters> counters = stats.getGlobalCounters();
+        header(out, "antiprotocol_packets_intercepted_total", "插件监听到的数据包数量", "counter");
+        for (Map.Entry<String, PacketStats.Counters> entry : counters.entrySet()) {
+            line(out, "antiprotocol_packets_intercepted_total", "type=\"" + escape(entry.getKey()) + "\"", entry.getValue().getIntercepted());
+        }
+        header(out, "antiprotocol_packets_cancelled_total", "被插件取消的数据包数量", "counter");
+        for (Map.Entry<String, PacketStats.Counters> entry : counters.entrySet()) {
+            line(out, "antiprotocol_packets_cancelled_total", "type=\"" + escape(entry.getKey()) + "\"", entry.getValue().getCancelled());
+        }
+        header(out, "antiprotocol_packets_rewritten_total", "内容被插件改写的数据包数量", "counter");
+        for (Map.Entry<String, PacketStats.Counters> entry : counters.entrySet()) {
+            line(out, "antiprotocol_packets_rewritten_total", "type=\"" + escape(entry.getKey()) + "\"", entry.getValue().getRewritten());
+        }
+
+        header(out, "antiprotocol_deferred_bytes_total", "延迟发送的物品和方块实体数据估算字节数", "counter");
+        line(out, "antiprotocol_deferred_bytes_total", "kind=\"item\"", stats.getDeferredItemBytes());
+        line(out, "antiprotocol_deferred_bytes_total", "kind=\"block_entity\"", stats.getDeferredBlockEntityBytes());
+
+        header(out, "antiprotocol_handler_duration_seconds", "数据包监听器和发包调度每次处理的耗时", "histogram");
+        for (Map.Entry<String, PacketStats.Histogram> entry : stats.getTimings().entrySet()) {
+            String handler = "handler=\"" + escape(entry.getKey()) + "\"";
+            PacketStats.Histogram histogram = entry.getValue();
+            long[] buckets = histogram.getBuckets();
+            long cumulative = 0;
+            // 最后一个桶没有上限，只计入+Inf；1微秒以下的桶合并到第一个输出的桶中
+            for (int i = 0; i < buckets.length - 1; i++) {
+                cumulative += buckets[i];
+                if (i < MIN_EXPORTED_BUCKET) continue;
+                line(out, "antiprotocol_handler_duration_seconds_bucket", handler + ",le=\"" + seconds(1L << i) + "\"", cumulative);
+            }
+            // 总数同样由各桶累加，避免与并发写入的count不一致
+            long count = cumulative + buckets[buckets.length - 1];
+            line(out, "antiprotocol_handler_duration_seconds_bucket", handler + ",le=\"+Inf\"", count);
+            out.append("antiprotocol_handler_duration_seconds_sum{").append(handler).append("} ")
+                    .append(seconds(histogram.getSumNanos())).append('\n');
+            line(out, "antiprotocol_handler_duration_seconds_count", handler, count);
+        }
+
+        // 主线程采样的瞬时值，同名样本归为一组
+        Map<String, List<Sample>> groups = new LinkedHashMap<>();
+        for (Sample sample : snapshot) {
+            groups.computeIfAbsent(sample.name, k -> new ArrayList<>()).add(sample);
+        }
+        for (List<Sample> group : groups.values()) {
+            Sample first = group.get(0);
+            header(out, first.name, first.help, first.type);
+            for (Sample sample : group) {
+                out.append(sample.name);
+                if (!sample.labels.isEmpty()) {
+                    out.append('{').append(sample.labels).append('}');
+                }
+                out.append(' ').append(format(sample.value)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return format(nanos / 1e9);
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
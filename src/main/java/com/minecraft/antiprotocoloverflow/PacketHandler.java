@@ -30,67 +30,192 @@ import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.BlockStateMeta;
-import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.Vector;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class PacketHandler {
     private final JavaPlugin plugin;
     private final ProtocolManager protocolManager;
     private final Set<Material> protectedBlockTypes = new HashSet<>();
-    // 存储每个玩家在每个世界中隐藏的方块，使用UUID+世界名称作为键
-    private final Map<String, Map<BlockPosition, Material>> hiddenBlocks = new ConcurrentHashMap<>();
-    // 存储每个玩家在每个世界中已处理的区块，使用UUID+世界名称作为键
-    private final Map<String, Set<Location>> processedChunks = new ConcurrentHashMap<>();
+    // 存储每个玩家在每个世界中隐藏的方块：玩家UUID -> 世界UID -> 隐藏方块表
+    private final Map<UUID, Map<UUID, HiddenBlockStore>> hiddenBlocks = new ConcurrentHashMap<>();
+    // 区块到玩家的反向索引：记录已处理的区块和有隐藏方块的区块，事件处理时只访问相关玩家
+    private final ChunkPlayerIndex chunkPlayers = new ChunkPlayerIndex();
+    // 世界级受保护方块索引，所有玩家共享
+    private final ProtectedBlockIndex blockIndex;
+    // 区块扫描流水线：主线程截取快照，工作线程分类，主线程按时间预算消费结果
+    private final ChunkScanPipeline scanPipeline;
+    private final RevealScheduler revealScheduler;
+    private final PacketScheduler packetScheduler;
+    private final BukkitTask packetSchedulerTask;
+    private final AdaptivePacer adaptivePacer;
+    private final BukkitTask pacingTask;
+    private final ItemWeightEstimator itemWeightEstimator = new ItemWeightEstimator();
+    private final ByteBudget byteBudget;
+    private final ShulkerCache shulkerCache;
+    private final BlockStateTable blockStateTable;
+    private final PacketStats packetStats = new PacketStats();
+    private final WindowItemsFilter windowItemsFilter;
+    // 隐藏方块记录的内存上限和定期检查任务
+    private final HiddenStateLimiter hiddenStateLimiter;
+    private BukkitTask stateSweepTask;
+    private final AtomicBoolean stateSweepRunning = new AtomicBoolean();
+    // 本tick待发送的显示批次：玩家UUID -> 批次，只在主线程访问
+    private final Map<UUID, RevealBatch> revealBatches = new HashMap<>();
+    // 每个玩家按视线和距离排序的待显示方块
+    private final Map<UUID, RevealQueue> revealQueues = new ConcurrentHashMap<>();
+    static final long PACING_WINDOW_TICKS = 20L; // 自适应速度的评估周期
+    // 区块数据包改写器：直接在MAP_CHUNK中移除远处的受保护方块
+    private final ChunkPacketRewriter chunkRewriter;
     
-    // 获取玩家在特定世界的数据键
-    private String getDataKey(UUID playerId, World world) {
-        return playerId.toString() + "-" + world.getName();
+    public ShulkerCache getShulkerCache() {
+        return shulkerCache;
+    }
+    
+    public PacketStats getPacketStats() {
+        return packetStats;
+    }
+    
+    public HiddenStateLimiter getHiddenStateLimiter() {
+        return hiddenStateLimiter;
+    }
+    
+    // 获取玩家在特定世界的隐藏方块表，不存在时返回null
+    private HiddenBlockStore getHiddenBlocks(UUID playerId, World world) {
+        Map<UUID, HiddenBlockStore> worlds = hiddenBlocks.get(playerId);
+        return worlds == null ? null : worlds.get(world.getUID());
+    }
+    
+    private HiddenBlockStore getHiddenBlocks(Player player) {
+        return getHiddenBlocks(player.getUniqueId(), player.getWorld());
+    }
+    
+    private static long blockKey(BlockPosition position) {
+        return BlockKeys.pack(position.getX(), position.getY(), position.getZ());
+    }
+    
+    private static BlockPosition toBlockPosition(long key) {
+        return new BlockPosition(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key));
+    }
+    
+    // 获取或创建玩家在当前世界的隐藏方块表
+    private HiddenBlockStore hiddenBlocksFor(Player player) {
+        return hiddenBlocks.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(player.getWorld().getUID(), k -> new HiddenBlockStore());
+    }
+    
+    // 丢弃玩家在某个世界的隐藏方块表和已处理区块记录
+    private void clearHiddenBlocks(UUID playerId, World world) {
+        if (world == null) return;
+        Map<UUID, HiddenBlockStore> worlds = hiddenBlocks.get(playerId);
+        if (worlds != null) {
+            worlds.remove(world.getUID());
+        }
+        chunkPlayers.removePlayerWorld(playerId, world.getUID());
+        RevealQueue revealQueue = revealQueues.get(playerId);
+        if (revealQueue != null) {
+            revealQueue.clear();
+        }
     }
     
     // 物品栏加载相关数据结构
-    private final Map<UUID, Map<Integer, List<DelayedItem>>> delayedItems = new ConcurrentHashMap<>();
-    private final Map<UUID, Boolean> isLoadingInventory = new ConcurrentHashMap<>();
-    private final Map<Integer, Boolean> isLoadingContainer = new ConcurrentHashMap<>();
-    private final Map<UUID, Integer> currentWindowId = new ConcurrentHashMap<>();
+    // 每个玩家按窗口ID保存的加载会话，窗口ID只在单个连接内唯一
+    private final Map<UUID, Map<Integer, WindowSession>> windowSessions = new ConcurrentHashMap<>();
     
     // 物品栏加载配置
     private int itemLoadDelay;
     private int itemsPerLoad;
+    private boolean coalesceDelayedItems = true;
+    private int itemPacketCostBytes = 256;
     private boolean logLoadEvents;
     
     public static class DelayedItem {
         public final int slot;
         public final ItemStack item;
         public final boolean isShulkerBox;
+        // 创建时估算的序列化字节数，发送任务每tick直接使用，不再重复估算
+        public final int weight;
         
-        public DelayedItem(int slot, ItemStack item, boolean isShulkerBox) {
+        public DelayedItem(int slot, ItemStack item, boolean isShulkerBox, int weight) {
             this.slot = slot;
             this.item = item;
             this.isShulkerBox = isShulkerBox;
+            this.weight = weight;
         }
     }
     
     // 配置参数
     private final int maxDistance = 16; // 显示保护方块的最大距离
+    private final VisibilityRules visibilityRules = new VisibilityRules(maxDistance);
     private int maxBlocksPerUpdate = 50; // 每批次更新的最大方块数量
-    private final long updateInterval = 50; // 更新间隔(毫秒)
     private boolean enableProtection = true;
     private boolean slowInventoryLoad = true;
     private boolean slowBlockLoad = true;
     private int blockLoadDelay = 50;
+    private boolean rewriteChunkPackets = false; // 是否直接改写区块数据包
     
     public PacketHandler(JavaPlugin plugin) {
         this.plugin = plugin;
         this.protocolManager = ProtocolLibrary.getProtocolManager();
         initProtectedBlockTypes();
+        this.blockStateTable = new BlockStateTable(plugin.getLogger());
+        blockStateTable.rebuild(protectedBlockTypes);
+        this.blockIndex = new ProtectedBlockIndex(plugin, protectedBlockTypes);
+        plugin.getServer().getPluginManager().registerEvents(blockIndex, plugin);
+        loadPayloadWeightConfig();
+        this.scanPipeline = new ChunkScanPipeline(plugin, blockIndex, protectedBlockTypes,
+                plugin.getConfig().getInt("scan-threads", 0),
+                plugin.getConfig().getLong("scan-tick-budget-ms", 2L),
+                this::scanChunkForProtectedBlocks);
+        plugin.getServer().getPluginManager().registerEvents(scanPipeline, plugin);
+        scanPipeline.start();
+        this.chunkRewriter = new ChunkPacketRewriter(blockStateTable);
+        this.revealScheduler = new RevealScheduler(plugin,
+                plugin.getConfig().getDouble("reveal-move-threshold", 4.0),
+                this::checkAndShowNearbyBlocks);
+        revealScheduler.start();
+        this.packetScheduler = new PacketScheduler(
+                plugin.getConfig().getInt("packets-per-tick", 400),
+                plugin.getConfig().getInt("player-packets-per-tick", maxBlocksPerUpdate));
+        this.packetSchedulerTask = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+            long start = System.nanoTime();
+            packetScheduler.tick();
+            flushReveals();
+            packetStats.recordTiming("SCHEDULER_TICK", System.nanoTime() - start);
+        }, 1L, 1L);
+        this.adaptivePacer = new AdaptivePacer(false, packetScheduler.getPlayerBudget(), 1, 1, 1, 1L);
+        loadPacingConfig();
+        packetScheduler.setPlayerBudgetFunction(adaptivePacer::budgetFor);
+        this.byteBudget = new ByteBudget(1, 1, 0);
+        loadByteBudgetConfig();
+        byteBudget.setSpeedFactor(adaptivePacer::speedFactor);
+        this.shulkerCache = new ShulkerCache(plugin.getConfig().getInt("shulker-cache-size", 4096),
+                plugin.getConfig().getLong("shulker-cache-max-bytes", 8388608L), itemWeightEstimator::weigh);
+        this.windowItemsFilter = new WindowItemsFilter(shulkerCache,
+                WindowItemsFilter::hasContents, WindowItemsFilter::emptyPlaceholder);
+        packetStats.setEnabled(plugin.getConfig().getBoolean("stats.enabled", true));
+        packetStats.registerGauge("hiddenBlocks", this::getHiddenBlockCount, this::getHiddenBlockCount);
+        packetStats.registerGauge("delayedItems", this::getDelayedItemCount, this::getDelayedItemCount);
+        packetStats.registerGauge("queuedJobs", packetScheduler::getQueuedJobCount, packetScheduler::getQueuedJobCount);
+        this.pacingTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::updatePacing,
+                PACING_WINDOW_TICKS, PACING_WINDOW_TICKS);
+        // 恢复半径外再留一个区块，刚淘汰的区块不会因为玩家小范围移动而立即恢复
+        this.hiddenStateLimiter = new HiddenStateLimiter(0, 0, restoreRadius() + 16);
+        loadStateLimitConfig();
         registerPacketListeners();
         registerPlayerMoveListener();
         
@@ -98,6 +223,8 @@ public class PacketHandler {
         this.itemLoadDelay = plugin.getConfig().getInt("item-load-delay", 50);
         this.itemsPerLoad = plugin.getConfig().getInt("items-per-load", 3);
         this.logLoadEvents = plugin.getConfig().getBoolean("log-load-events", false);
+        this.rewriteChunkPackets = plugin.getConfig().getBoolean("rewrite-chunk-packets", false);
+        loadItemCoalescingConfig();
     }
     
     // 更新配置参数
@@ -111,21 +238,189 @@ public class PacketHandler {
         this.enableProtection = enableProtection;
         this.slowInventoryLoad = slowInventoryLoad;
         this.slowBlockLoad = slowBlockLoad;
+        this.scanPipeline.setTickBudgetMillis(plugin.getConfig().getLong("scan-tick-budget-ms", 2L));
+        this.packetScheduler.setBudgets(
+                plugin.getConfig().getInt("packets-per-tick", 400),
+                plugin.getConfig().getInt("player-packets-per-tick", maxBlocksPerUpdate));
+        this.revealScheduler.setMoveThreshold(plugin.getConfig().getDouble("reveal-move-threshold", 4.0));
+        this.rewriteChunkPackets = plugin.getConfig().getBoolean("rewrite-chunk-packets", false);
+        loadPacingConfig();
+        loadByteBudgetConfig();
+        loadItemCoalescingConfig();
+        loadStateLimitConfig();
+        loadPayloadWeightConfig();
+        shulkerCache.setMaxSize(plugin.getConfig().getInt("shulker-cache-size", 4096));
+        shulkerCache.setMaxBytes(plugin.getConfig().getLong("shulker-cache-max-bytes", 8388608L));
+        packetStats.setEnabled(plugin.getConfig().getBoolean("stats.enabled", true));
+    }
+    
+    // 从配置加载延迟显示的数据量阈值，关闭时所有受保护方块都按距离延迟显示
+    private void loadPayloadWeightConfig() {
+        if (plugin.getConfig().getBoolean("payload-weight.enabled", false)) {
+            blockIndex.setWeigher(itemWeightEstimator::weighPayload);
+            visibilityRules.setWeightThresholds(
+                    plugin.getConfig().getInt("payload-weight.block-threshold-bytes", 4096),
+                    plugin.getConfig().getLong("payload-weight.chunk-threshold-bytes", 65536L));
+        } else {
+            blockIndex.setWeigher(null);
+            visibilityRules.setWeightThresholds(0, 0);
+        }
+    }
+    
+    // 从配置加载隐藏方块记录的内存上限，并按新的间隔重新安排检查任务
+    private void loadStateLimitConfig() {
+        hiddenStateLimiter.configure(
+                plugin.getConfig().getInt("state-limits.max-hidden-blocks-per-player", 50000),
+                plugin.getConfig().getLong("state-limits.max-hidden-blocks-total", 1000000L));
+        long interval = Math.max(20L, plugin.getConfig().getLong("state-limits.sweep-interval-ticks", 200L));
+        if (stateSweepTask != null) {
+            stateSweepTask.cancel();
+        }
+        stateSweepTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::sweepHiddenState, interval, interval);
+    }
+    
+    // 定期检查隐藏方块记录，超出上限时淘汰离玩家最远的区块
+    // 主线程只记录玩家位置和每个表的大小，统计、排序和淘汰在异步线程执行；上一次检查未完成时跳过本次
+    private void sweepHiddenState() {
+        if (!stateSweepRunning.compareAndSet(false, true)) return;
+        List<HiddenStateLimiter.Holder> holders = new ArrayList<>();
+        for (Map.Entry<UUID, Map<UUID, HiddenBlockStore>> entry : hiddenBlocks.entrySet()) {
+            Player player = plugin.getServer().getPlayer(entry.getKey());
+            Location location = player != null ? player.getLocation() : null;
+            for (Map.Entry<UUID, HiddenBlockStore> worldEntry : entry.getValue().entrySet()) {
+                boolean inWorld = location != null && location.getWorld() != null
+                        && location.getWorld().getUID().equals(worldEntry.getKey());
+                holders.add(new HiddenStateLimiter.Holder(worldEntry.getValue(), inWorld,
+                        inWorld ? location.getX() : 0, inWorld ? location.getZ() : 0));
+            }
+        }
+        try {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                long start = System.nanoTime();
+                try {
+                    int evicted = hiddenStateLimiter.sweep(holders);
+                    if (evicted > 0 && logLoadEvents) {
+                        plugin.getLogger().info("隐藏方块记录超出上限，已淘汰 " + evicted + " 条记录，估算占用 "
+                                + hiddenStateLimiter.getEstimatedBytes() / 1024 + " KB");
+                    }
+                } catch (Exception e) {
+                    plugin.getLogger().warning("检查隐藏方块记录时出错: " + e.getMessage());
+                } finally {
+                    stateSweepRunning.set(false);
+                    packetStats.recordTiming("STATE_SWEEP", System.nanoTime() - start);
+                }
+            });
+        } catch (Exception e) {
+            // 插件正在关闭时无法再安排异步任务
+            stateSweepRunning.set(false);
+        }
+    }
+    
+    // 玩家靠近已淘汰的区块时，根据受保护方块索引恢复区块内的隐藏方块记录
+    private void restoreEvictedChunks(Player player, HiddenBlockStore store) {
+        if (!store.hasEvictedChunks()) return;
+        Location location = player.getLocation();
+        World world = location.getWorld();
+        if (world == null) return;
+        for (long chunkKey : store.takeEvictedChunksWithin(location.getX(), location.getZ(), restoreRadius())) {
+            // 区块未被索引（已卸载）时不需要恢复，重新加载时会重新处理
+            ProtectedBlockIndex.ChunkEntry entry = blockIndex.getChunk(world, BlockKeys.chunkX(chunkKey), BlockKeys.chunkZ(chunkKey));
+            if (entry == null) continue;
+            for (int i = 0; i < entry.positions.length; i++) {
+                if (visibilityRules.defers(entry, i)) {
+                    store.put(entry.positions[i], entry.types[i]);
+                }
+            }
+        }
+    }
+    
+    // 已淘汰的区块进入该水平距离时恢复：显示距离外再加一个区块
+    private double restoreRadius() {
+        return maxDistance + 16;
+    }
+    
+    // 从配置加载延迟物品合并发送的参数
+    private void loadItemCoalescingConfig() {
+        this.coalesceDelayedItems = plugin.getConfig().getBoolean("item-coalescing.enabled", true);
+        this.itemPacketCostBytes = Math.max(0, plugin.getConfig().getInt("item-coalescing.packet-cost-bytes", 256));
+    }
+    
+    // 从配置加载按字节计算的发送额度
+    private void loadByteBudgetConfig() {
+        byteBudget.configure(
+                plugin.getConfig().getInt("byte-budget.bytes-per-tick", 16384),
+                plugin.getConfig().getInt("byte-budget.burst-ticks", 4),
+                plugin.getConfig().getInt("byte-budget.cheap-item-bytes", 512));
+    }
+    
+    // 从配置加载自适应发包速度参数，基准预算沿用player-packets-per-tick
+    private void loadPacingConfig() {
+        adaptivePacer.configure(
+                plugin.getConfig().getBoolean("adaptive-pacing.enabled", true),
+                packetScheduler.getPlayerBudget(),
+                plugin.getConfig().getInt("adaptive-pacing.min-packets-per-tick", 5),
+                plugin.getConfig().getInt("adaptive-pacing.max-packets-per-tick", 200),
+                plugin.getConfig().getInt("adaptive-pacing.increase-step", 5),
+                plugin.getConfig().getLong("adaptive-pacing.max-bytes-per-second", 262144L) * PACING_WINDOW_TICKS / 20L);
+    }
+    
+    // 每个评估周期根据延迟和积压情况调整各玩家的发包速度
+    private void updatePacing() {
+        if (!adaptivePacer.isEnabled()) return;
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            UUID playerId = player.getUniqueId();
+            adaptivePacer.update(playerId, player.getPing(), packetScheduler.getQueuedJobCount(playerId));
+        }
     }
     
     // 标记玩家背包正在加载
     public void markInventoryLoading(Player player, boolean loading) {
-        isLoadingInventory.put(player.getUniqueId(), loading);
+        Map<Integer, WindowSession> sessions = windowSessions.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>());
+        WindowSession session = sessions.get(WindowSession.PLAYER_INVENTORY);
+        if (session == null || session.isReleased()) {
+            sessions.put(WindowSession.PLAYER_INVENTORY, new WindowSession(WindowSession.PLAYER_INVENTORY, loading));
+        } else {
+            session.setLoading(loading);
+        }
+    }
+    
+    // 玩家打开新容器：同一时间只能打开一个容器，之前的容器会话一并释放
+    private WindowSession openContainerSession(UUID playerId, int windowId) {
+        Map<Integer, WindowSession> sessions = windowSessions.computeIfAbsent(playerId, k -> new ConcurrentHashMap<>());
+        Iterator<Map.Entry<Integer, WindowSession>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, WindowSession> entry = iterator.next();
+            if (entry.getKey() != WindowSession.PLAYER_INVENTORY) {
+                entry.getValue().release();
+                iterator.remove();
+            }
+        }
+        WindowSession session = new WindowSession(windowId, true);
+        sessions.put(windowId, session);
+        return session;
     }
     
-    // 标记容器正在加载
-    public void markContainerLoading(int windowId, boolean loading) {
-        isLoadingContainer.put(windowId, loading);
+    // 窗口关闭时释放对应的会话，背包会话在玩家离线前一直保留
+    private void closeWindowSession(UUID playerId, int windowId) {
+        if (windowId == WindowSession.PLAYER_INVENTORY) return;
+        Map<Integer, WindowSession> sessions = windowSessions.get(playerId);
+        if (sessions == null) return;
+        WindowSession session = sessions.remove(windowId);
+        if (session != null) {
+            session.release();
+        }
+    }
+    
+    private WindowSession getWindowSession(UUID playerId, int windowId) {
+        Map<Integer, WindowSession> sessions = windowSessions.get(playerId);
+        return sessions == null ? null : sessions.get(windowId);
     }
     
-    // 记录玩家当前打开的窗口ID
-    public void setCurrentWindowId(Player player, int windowId) {
-        currentWindowId.put(player.getUniqueId(), windowId);
+    private void releaseWindowSessions(Map<Integer, WindowSession> sessions) {
+        if (sessions == null) return;
+        for (WindowSession session : sessions.values()) {
+            session.release();
+        }
     }
     
     // 清理玩家数据
@@ -133,25 +428,20 @@ public class PacketHandler {
         UUID playerId = player.getUniqueId();
         
         // 清理所有世界中的隐藏方块数据
-        Iterator<Map.Entry<String, Map<BlockPosition, Material>>> hiddenIterator = hiddenBlocks.entrySet().iterator();
-        while (hiddenIterator.hasNext()) {
-            if (hiddenIterator.next().getKey().startsWith(playerId.toString() + "-")) {
-                hiddenIterator.remove();
-            }
-        }
+        hiddenBlocks.remove(playerId);
+        revealScheduler.removePlayer(playerId);
+        revealBatches.remove(playerId);
+        revealQueues.remove(playerId);
+        packetScheduler.removePlayer(playerId);
+        adaptivePacer.removePlayer(playerId);
+        byteBudget.removePlayer(playerId);
+        packetStats.removePlayer(playerId);
         
         // 清理所有世界中已处理的区块数据
-        Iterator<Map.Entry<String, Set<Location>>> processedIterator = processedChunks.entrySet().iterator();
-        while (processedIterator.hasNext()) {
-            if (processedIterator.next().getKey().startsWith(playerId.toString() + "-")) {
-                processedIterator.remove();
-            }
-        }
+        chunkPlayers.removePlayer(playerId);
         
-        // 清理其他玩家相关数据
-        delayedItems.remove(playerId);
-        isLoadingInventory.remove(playerId);
-        currentWindowId.remove(playerId);
+        // 释放窗口会话并取消未完成的物品发送任务
+        releaseWindowSessions(windowSessions.remove(playerId));
     }
     
     // 清理所有数据（服务器关闭时调用）
@@ -159,73 +449,26 @@ public class PacketHandler {
         // 清除所有隐藏方块数据
         hiddenBlocks.clear();
         // 清除所有已处理区块数据
-        processedChunks.clear();
+        chunkPlayers.clear();
+        // 清除受保护方块索引
+        blockIndex.clear();
+        // 清空待显示队列，对应的发送任务在下一次执行时结束
+        for (RevealQueue queue : revealQueues.values()) {
+            queue.clear();
+        }
         // 清除所有玩家相关数据
-        delayedItems.clear();
-        isLoadingInventory.clear();
-        isLoadingContainer.clear();
-        currentWindowId.clear();
-        
-        plugin.getLogger().info("已清除所有数据");
-    }
-    
-    // 检查物品是否为潜影盒
-    private boolean isShulkerBox(ItemStack item) {
-        if (item == null) return false;
-        return item.getType().toString().contains("SHULKER_BOX");
-    }
-    
-    // 检查潜影盒是否为空
-    private boolean isEmptyShulkerBox(ItemStack shulkerBox) {
-        if (shulkerBox == null || !isShulkerBox(shulkerBox)) return true;
-        
-        try {
-            BlockStateMeta meta = (BlockStateMeta) shulkerBox.getItemMeta();
-            if (meta == null || !meta.hasBlockState()) return true;
-            
-            org.bukkit.block.ShulkerBox shulkerBoxState = (org.bukkit.block.ShulkerBox) meta.getBlockState();
-            return shulkerBoxState.getInventory().isEmpty();
-        } catch (Exception e) {
-            return true;
+        for (Map<Integer, WindowSession> sessions : windowSessions.values()) {
+            releaseWindowSessions(sessions);
         }
-    }
-    
-    // 获取空的潜影盒
-    private ItemStack getEmptyShulkerBox(ItemStack originalShulkerBox) {
-        if (originalShulkerBox == null || !isShulkerBox(originalShulkerBox)) return null;
+        windowSessions.clear();
         
-        try {
-            ItemStack emptyShulkerBox = new ItemStack(originalShulkerBox.getType());
-            
-            // 复制名称和其他元数据，但不复制内容
-            if (originalShulkerBox.hasItemMeta()) {
-                ItemMeta originalMeta = originalShulkerBox.getItemMeta();
-                if (originalMeta != null) {
-                    ItemMeta emptyMeta = emptyShulkerBox.getItemMeta();
-                    if (emptyMeta != null) {
-                        if (originalMeta.hasDisplayName()) {
-                            emptyMeta.setDisplayName(originalMeta.getDisplayName());
-                        }
-                        if (originalMeta.hasLore()) {
-                            emptyMeta.setLore(originalMeta.getLore());
-                        }
-                        emptyShulkerBox.setItemMeta(emptyMeta);
-                    }
-                }
-            }
-            
-            return emptyShulkerBox;
-        } catch (Exception e) {
-            return null;
-        }
+        plugin.getLogger().info("已清除所有数据");
     }
     
     // 初始化玩家数据
     public void initializePlayer(Player player) {
         // 初始化玩家在当前世界的隐藏方块集合
-        String dataKey = getDataKey(player.getUniqueId(), player.getWorld());
-        hiddenBlocks.putIfAbsent(dataKey, new HashMap<>());
-        processedChunks.putIfAbsent(dataKey, new HashSet<>());
+        hiddenBlocksFor(player);
     }
     
     private void initProtectedBlockTypes() {
@@ -254,57 +497,151 @@ public class PacketHandler {
         protectedBlockTypes.add(Material.ACACIA_WALL_SIGN);
     }
     
-    // 从BlockData获取Material（兼容不同版本）
-    private Material getMaterialFromBlockData(WrappedBlockData blockData) {
-        try {
-            // 直接使用字符串解析方式，避免调用可能不存在的方法
-            String dataString = blockData.toString();
-            // 简单解析dataString获取方块类型
-            if (dataString.contains("{")) {
-                dataString = dataString.substring(0, dataString.indexOf('{')).trim();
-            }
+    // 检查方块是否为容器类型
+    private boolean isContainerType(Material material) {
+        return BlockTypes.isContainer(material);
+    }
+    
+    // 统计处理次数、取消次数和耗时的数据包监听器，服务端和客户端数据包都适用
+    private abstract class ObservedAdapter extends PacketAdapter {
+        ObservedAdapter(PacketType type) {
+            super(PacketHandler.this.plugin, type);
+        }
+        
+        @Override
+        public final void onPacketSending(PacketEvent event) {
+            observe(event);
+        }
+        
+        @Override
+        public final void onPacketReceiving(PacketEvent event) {
+            observe(event);
+        }
+        
+        private void observe(PacketEvent event) {
+            long start = System.nanoTime();
             try {
-                return Material.valueOf(dataString.toUpperCase());
-            } catch (Exception ex) {
-                return null;
+                handle(event);
+            } finally {
+                Player player = event.getPlayer();
+                packetStats.recordPacket(player == null ? null : player.getUniqueId(), event.getPacketType().name(),
+                        event.isCancelled(), System.nanoTime() - start);
             }
-        } catch (Exception e) {
-            plugin.getLogger().warning("获取方块材质时出错: " + e.getMessage());
-            return null;
         }
+        
+        abstract void handle(PacketEvent event);
     }
     
-    // 检查方块是否为容器类型
-    private boolean isContainerType(Material material) {
-        return material == Material.CHEST || material == Material.TRAPPED_CHEST ||
-               material == Material.BARREL || material == Material.SHULKER_BOX ||
-               material == Material.WHITE_SHULKER_BOX || material == Material.ORANGE_SHULKER_BOX ||
-               material == Material.MAGENTA_SHULKER_BOX || material == Material.LIGHT_BLUE_SHULKER_BOX ||
-               material == Material.YELLOW_SHULKER_BOX || material == Material.LIME_SHULKER_BOX ||
-               material == Material.PINK_SHULKER_BOX || material == Material.GRAY_SHULKER_BOX ||
-               material == Material.LIGHT_GRAY_SHULKER_BOX || material == Material.CYAN_SHULKER_BOX ||
-               material == Material.PURPLE_SHULKER_BOX || material == Material.BLUE_SHULKER_BOX ||
-               material == Material.BROWN_SHULKER_BOX || material == Material.GREEN_SHULKER_BOX ||
-               material == Material.RED_SHULKER_BOX || material == Material.BLACK_SHULKER_BOX ||
-               material == Material.ENDER_CHEST || material == Material.HOPPER ||
-               material == Material.DROPPER || material == Material.DISPENSER ||
-               material == Material.FURNACE || material == Material.BLAST_FURNACE ||
-               material == Material.SMOKER || material == Material.BREWING_STAND ||
-               material == Material.LECTERN || material == Material.CARTOGRAPHY_TABLE ||
-               material == Material.LOOM || material == Material.STONECUTTER ||
-               material == Material.GRINDSTONE || material == Material.ANVIL ||
-               material == Material.CHIPPED_ANVIL || material == Material.DAMAGED_ANVIL ||
-               material == Material.BEACON || material == Material.ENCHANTING_TABLE ||
-               material == Material.BOOKSHELF || material == Material.COMPOSTER ||
-               material == Material.CRAFTING_TABLE || material == Material.SMITHING_TABLE ||
-               material == Material.FLETCHING_TABLE;
+    // 玩家所有世界中隐藏的方块数量
+    public long getHiddenBlockCount(UUID playerId) {
+        Map<UUID, HiddenBlockStore> worlds = hiddenBlocks.get(playerId);
+        if (worlds == null) return 0;
+        long count = 0;
+        for (HiddenBlockStore store : worlds.values()) {
+            count += store.size();
+        }
+        return count;
+    }
+    
+    // 所有玩家隐藏的方块数量
+    public long getHiddenBlockCount() {
+        long count = 0;
+        for (UUID playerId : hiddenBlocks.keySet()) {
+            count += getHiddenBlockCount(playerId);
+        }
+        return count;
+    }
+    
+    // 玩家所有窗口中等待延迟发送的物品数量
+    public long getDelayedItemCount(UUID playerId) {
+        Map<Integer, WindowSession> sessions = windowSessions.get(playerId);
+        if (sessions == null) return 0;
+        long count = 0;
+        for (WindowSession session : sessions.values()) {
+            count += session.getPendingCount();
+        }
+        return count;
+    }
+    
+    // 所有玩家等待延迟发送的物品数量
+    public long getDelayedItemCount() {
+        long count = 0;
+        for (UUID playerId : windowSessions.keySet()) {
+            count += getDelayedItemCount(playerId);
+        }
+        return count;
+    }
+    
+    // 采样指标导出所需的瞬时值，必须在主线程调用
+    public void collectMetrics(List<MetricsExporter.Sample> samples) {
+        Map<UUID, Long> hiddenByWorld = new HashMap<>();
+        for (Map<UUID, HiddenBlockStore> worlds : hiddenBlocks.values()) {
+            for (Map.Entry<UUID, HiddenBlockStore> entry : worlds.entrySet()) {
+                hiddenByWorld.merge(entry.getKey(), (long) entry.getValue().size(), Long::sum);
+            }
+        }
+        for (Map.Entry<UUID, Long> entry : hiddenByWorld.entrySet()) {
+            World world = Bukkit.getWorld(entry.getKey());
+            samples.add(MetricsExporter.Sample.gauge("antiprotocol_hidden_blocks", "对玩家隐藏中的受保护方块数量",
+                    "world", world != null ? world.getName() : entry.getKey().toString(), entry.getValue()));
+        }
+        
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_delayed_items", "等待延迟发送的物品数量", getDelayedItemCount()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_scheduler_queued_jobs", "发包调度器中排队的任务数量",
+                packetScheduler.getQueuedJobCount()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_scheduler_queued_players", "发包调度器中有排队任务的玩家数量",
+                packetScheduler.getQueuedPlayerCount()));
+        samples.add(MetricsExporter.Sample.counter("antiprotocol_scheduler_failed_jobs_total", "发包调度器中执行失败的任务数量",
+                packetScheduler.getFailedJobCount()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_scan_pending_chunks", "等待扫描的区块数量",
+                scanPipeline.getPendingCount()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_reveal_pending_players", "等待检查附近隐藏方块的玩家数量",
+                revealScheduler.getPendingCount()));
+        int revealQueued = 0;
+        for (RevealQueue queue : revealQueues.values()) {
+            revealQueued += queue.size();
+        }
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_reveal_queued_blocks", "按视线和距离排序、等待显示的方块数量",
+                revealQueued));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_indexed_chunks", "受保护方块索引中的区块数量",
+                blockIndex.getIndexedChunkCount()));
+        samples.add(MetricsExporter.Sample.counter("antiprotocol_chunk_layout_builds_total", "计算区块分类布局的次数（每个区块版本一次）",
+                blockIndex.getLayoutBuildCount()));
+        samples.add(MetricsExporter.Sample.counter("antiprotocol_chunk_layout_reuses_total", "玩家复用已有区块分类布局的次数",
+                blockIndex.getLayoutReuseCount()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_state_bytes", "隐藏方块记录估算占用的堆内存（字节，按检查间隔更新）",
+                hiddenStateLimiter.getEstimatedBytes()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_evicted_chunks", "已淘汰、等待玩家靠近时恢复的区块数量",
+                hiddenStateLimiter.getEvictedChunkCount()));
+        samples.add(MetricsExporter.Sample.counter("antiprotocol_evicted_hidden_blocks_total", "超出内存上限被淘汰的隐藏方块记录数",
+                hiddenStateLimiter.getEvictedBlocksTotal()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_player_chunks", "有玩家隐藏方块或已处理记录的区块数量",
+                chunkPlayers.getIndexedChunkCount()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_shulker_cache_entries", "潜影盒分类缓存条目数量",
+                shulkerCache.size()));
+        samples.add(MetricsExporter.Sample.gauge("antiprotocol_shulker_cache_bytes", "潜影盒分类缓存中物品的估算字节数",
+                shulkerCache.getBytes()));
+        samples.add(MetricsExporter.Sample.counter("antiprotocol_shulker_cache_hits_total", "潜影盒分类缓存命中次数",
+                shulkerCache.getHits()));
+        samples.add(MetricsExporter.Sample.counter("antiprotocol_shulker_cache_misses_total", "潜影盒分类缓存未命中次数",
+                shulkerCache.getMisses()));
+    }
+    
+    // 导出统计数据到数据文件夹，返回写入的文件
+    public File dumpStats() throws IOException {
+        File file = new File(plugin.getDataFolder(), "stats.json");
+        plugin.getDataFolder().mkdirs();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            packetStats.writeJson(out);
+        }
+        return file;
     }
     
     private void registerPacketListeners() {
         // 监听区块数据发送包
-        protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.MAP_CHUNK) {
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.MAP_CHUNK) {
             @Override
-            public void onPacketSending(PacketEvent event) {
+            void handle(PacketEvent event) {
                 try {
                     handleChunkDataPacket(event);
                 } catch (Exception e) {
@@ -316,9 +653,9 @@ public class PacketHandler {
         });
         
         // 监听方块变化包
-        protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.BLOCK_CHANGE) {
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.BLOCK_CHANGE) {
             @Override
-            public void onPacketSending(PacketEvent event) {
+            void handle(PacketEvent event) {
                 try {
                     handleBlockChangePacket(event);
                 } catch (Exception e) {
@@ -329,12 +666,26 @@ public class PacketHandler {
             }
         });
         
+        // 监听区块段批量方块变化包（WorldEdit粘贴、活塞等会产生）
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.MULTI_BLOCK_CHANGE) {
+            @Override
+            void handle(PacketEvent event) {
+                try {
+                    handleMultiBlockChangePacket(event);
+                } catch (Exception e) {
+                    // 捕获异常，防止服务器崩溃或玩家被踢出
+                    plugin.getLogger().warning("处理批量方块变化数据包时发生异常: " + e.getMessage());
+                    event.setCancelled(true);
+                }
+            }
+        });
+        
         // 监听方块实体数据数据包（TILE_ENTITY_DATA - ProtocolLib 5.4.0中的正确常量）
         try {
             // 使用ProtocolLib 5.4.0中正确的常量名称TILE_ENTITY_DATA
-            protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.TILE_ENTITY_DATA) {
+            protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.TILE_ENTITY_DATA) {
                 @Override
-                public void onPacketSending(PacketEvent event) {
+                void handle(PacketEvent event) {
                     try {
                         // 更安全的处理，确保异常不会导致玩家断开连接
                         handleBlockEntityDataPacket(event);
@@ -349,9 +700,9 @@ public class PacketHandler {
             
             // 同时监听UPDATE_SIGN数据包，因为它也可能包含方块实体数据
             if (PacketType.Play.Server.UPDATE_SIGN != null) {
-                protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.UPDATE_SIGN) {
+                protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.UPDATE_SIGN) {
                     @Override
-                    public void onPacketSending(PacketEvent event) {
+                    void handle(PacketEvent event) {
                         try {
                             handleBlockEntityDataPacket(event);
                         } catch (Exception e) {
@@ -368,9 +719,9 @@ public class PacketHandler {
         }
         
         // 监听窗口物品数据包 (WINDOW_ITEMS)
-        protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.WINDOW_ITEMS) {
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.WINDOW_ITEMS) {
             @Override
-            public void onPacketSending(PacketEvent event) {
+            void handle(PacketEvent event) {
                 try {
                     handleWindowItemsPacket(event);
                 } catch (Exception e) {
@@ -380,10 +731,22 @@ public class PacketHandler {
             }
         });
         
+        // 监听物品槽数据包 (SET_SLOT)，只记录状态，不修改数据包
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.SET_SLOT) {
+            @Override
+            void handle(PacketEvent event) {
+                try {
+                    handleSetSlotPacket(event);
+                } catch (Exception e) {
+                    plugin.getLogger().fine("处理物品槽数据包时发生异常: " + e.getMessage());
+                }
+            }
+        });
+        
         // 监听打开窗口数据包 (OPEN_WINDOW)
-        protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.OPEN_WINDOW) {
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.OPEN_WINDOW) {
             @Override
-            public void onPacketSending(PacketEvent event) {
+            void handle(PacketEvent event) {
                 try {
                     handleOpenWindowPacket(event);
                 } catch (Exception e) {
@@ -394,9 +757,9 @@ public class PacketHandler {
         });
         
         // 监听关闭窗口数据包 (CLOSE_WINDOW)
-        protocolManager.addPacketListener(new PacketAdapter(plugin, PacketType.Play.Server.CLOSE_WINDOW) {
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Server.CLOSE_WINDOW) {
             @Override
-            public void onPacketSending(PacketEvent event) {
+            void handle(PacketEvent event) {
                 try {
                     handleCloseWindowPacket(event);
                 } catch (Exception e) {
@@ -404,6 +767,20 @@ public class PacketHandler {
                 }
             }
         });
+        
+        // 监听客户端关闭窗口数据包，玩家主动关闭容器时服务端不会发送CLOSE_WINDOW
+        protocolManager.addPacketListener(new ObservedAdapter(PacketType.Play.Client.CLOSE_WINDOW) {
+            @Override
+            void handle(PacketEvent event) {
+                try {
+                    Player player = event.getPlayer();
+                    if (player == null) return;
+                    closeWindowSession(player.getUniqueId(), event.getPacket().getIntegers().read(0));
+                } catch (Exception e) {
+                    plugin.getLogger().warning("处理客户端关闭窗口数据包时发生异常: " + e.getMessage());
+                }
+            }
+        });
     }
     
     // 处理窗口物品数据包
@@ -416,12 +793,12 @@ public class PacketHandler {
             // 获取窗口ID
             int windowId = packet.getIntegers().read(0);
             
-            // 检查是否为玩家背包(0)或正在加载的容器
-            boolean isPlayerInventory = (windowId == 0);
-            boolean isLoading = (isPlayerInventory && Boolean.TRUE.equals(isLoadingInventory.getOrDefault(playerId, false))) ||
-                              Boolean.TRUE.equals(isLoadingContainer.getOrDefault(windowId, false));
-            
-            if (!isLoading) return; // 如果不是正在加载的物品栏，直接放行
+            // 检查是否为该玩家正在加载的背包或容器
+            WindowSession session = getWindowSession(playerId, windowId);
+            if (session == null) return;
+            // 记录服务端的容器状态ID，延迟发送的SET_SLOT沿用该值，避免客户端因状态ID不一致再次请求整个窗口
+            session.setStateId(packet.getIntegers().read(1));
+            if (!session.isLoading()) return; // 如果不是正在加载的物品栏，直接放行
             
             // 获取物品列表
             StructureModifier<Object> objects = packet.getModifier();
@@ -434,43 +811,61 @@ public class PacketHandler {
             
             if (items == null) return;
             
-            // 创建要延迟加载的物品列表
-            List<DelayedItem> delayedItemsList = new ArrayList<>();
+            // 非空潜影盒放入延迟加载列表，并在物品列表中替换为空潜影盒，其他物品立即显示
+            List<DelayedItem> delayedItemsList = windowItemsFilter.filter(items);
             
-            // 处理物品列表，将普通物品立即显示，潜影盒延迟显示
-            for (int i = 0; i < items.size(); i++) {
-                ItemStack item = items.get(i);
-                if (item != null && item.getType() != Material.AIR) {
-                    if (isShulkerBox(item)) {
-                        if (!isEmptyShulkerBox(item)) {
-                            // 对于非空潜影盒，放入延迟加载列表，并替换为空潜影盒
-                            delayedItemsList.add(new DelayedItem(i, item, true));
-                            ItemStack emptyShulkerBox = getEmptyShulkerBox(item);
-                            if (emptyShulkerBox != null) {
-                                items.set(i, emptyShulkerBox);
-                                if (logLoadEvents) {
-                                    plugin.getLogger().info("为玩家 " + player.getName() + " 替换潜影盒为空盒，槽位: " + i);
-                                }
-                            }
-                        }
-                        // 空潜影盒直接显示
+            // 重新同步时，已送达的槽位如果是轻量物品或与客户端已有的内容相同，直接随本次数据包发送；
+            // 之后被换成重物品的槽位重新延迟，其余尚未送达的槽位继续延迟
+            if (!delayedItemsList.isEmpty() && session.hasStarted()) {
+                Iterator<DelayedItem> delayedIterator = delayedItemsList.iterator();
+                while (delayedIterator.hasNext()) {
+                    DelayedItem delayedItem = delayedIterator.next();
+                    if (!session.isDelivered(delayedItem.slot)) continue;
+                    if (byteBudget.isCheap(delayedItem.weight)
+                            || session.snapshotMatches(delayedItem.slot, delayedItem.item)) {
+                        items.set(delayedItem.slot, delayedItem.item);
+                        delayedIterator.remove();
                     } else {
-                        // 普通物品立即显示，不需要修改
+                        session.clearDelivered(delayedItem.slot);
                     }
                 }
             }
+            if (logLoadEvents) {
+                for (DelayedItem delayedItem : delayedItemsList) {
+                    plugin.getLogger().info("为玩家 " + player.getName() + " 替换潜影盒为空盒，槽位: " + delayedItem.slot);
+                }
+            }
             
             // 如果有延迟加载的物品，启动加载任务
-            if (!delayedItemsList.isEmpty()) {
-                // 存储延迟加载的物品
-                delayedItems.putIfAbsent(playerId, new HashMap<>());
-                delayedItems.get(playerId).put(windowId, delayedItemsList);
-                
+            if (delayedItemsList.isEmpty()) {
+                if (session.hasStarted()) {
+                    // 剩余物品全部随本次同步送达，结束之前的发送任务
+                    objects.write(0, items);
+                    session.finishPending();
+                }
+            } else {
                 // 更新数据包中的物品列表
                 objects.write(0, items);
                 
-                // 启动延迟加载任务
-                startDelayedItemsLoading(player, windowId);
+                // 记录客户端将看到的窗口内容，之后的延迟物品可以合并进完整的WINDOW_ITEMS
+                if (coalesceDelayedItems) {
+                    int[] weights = new int[items.size()];
+                    for (int i = 0; i < weights.length; i++) {
+                        weights[i] = itemWeightEstimator.weigh(items.get(i));
+                    }
+                    session.setSnapshot(items, packet.getItemModifier().read(0), weights);
+                }
+                packetStats.recordRewritten(playerId, event.getPacketType().name());
+                if (packetStats.isEnabled()) {
+                    long deferredBytes = 0;
+                    for (DelayedItem delayedItem : delayedItemsList) {
+                        deferredBytes += delayedItem.weight;
+                    }
+                    packetStats.recordDeferredItemBytes(playerId, deferredBytes);
+                }
+                
+                // 启动延迟加载任务，替换同一窗口之前未完成的任务
+                startDelayedItemsLoading(player, session, delayedItemsList);
             }
         } catch (Exception e) {
             plugin.getLogger().warning("处理窗口物品数据包时发生详细异常: " + e.getMessage());
@@ -478,6 +873,21 @@ public class PacketHandler {
         }
     }
     
+    // 处理物品槽数据包：记录状态ID，服务端单独更新过的槽位不再发送旧的延迟物品
+    private void handleSetSlotPacket(PacketEvent event) {
+        PacketContainer packet = event.getPacket();
+        int windowId = packet.getIntegers().read(0);
+        WindowSession session = getWindowSession(event.getPlayer().getUniqueId(), windowId);
+        if (session == null) return;
+        session.setStateId(packet.getIntegers().read(1));
+        int slot = packet.getIntegers().read(2);
+        session.markDelivered(slot);
+        if (session.hasSnapshot()) {
+            ItemStack item = packet.getItemModifier().read(0);
+            session.updateSnapshot(slot, item, itemWeightEstimator.weigh(item));
+        }
+    }
+    
     // 处理打开窗口数据包
     private void handleOpenWindowPacket(PacketEvent event) {
         Player player = event.getPlayer();
@@ -487,11 +897,8 @@ public class PacketHandler {
             // 获取窗口ID
             int windowId = packet.getIntegers().read(0);
             
-            // 记录玩家当前打开的窗口ID
-            setCurrentWindowId(player, windowId);
-            
-            // 标记容器正在加载
-            markContainerLoading(windowId, true);
+            // 为新窗口创建正在加载的会话
+            openContainerSession(player.getUniqueId(), windowId);
             
             if (logLoadEvents) {
                 plugin.getLogger().info("玩家 " + player.getName() + " 打开窗口，ID: " + windowId + "，标记为正在加载");
@@ -511,22 +918,8 @@ public class PacketHandler {
             // 获取窗口ID
             int windowId = packet.getIntegers().read(0);
             
-            // 清除容器加载标记
-            isLoadingContainer.remove(windowId);
-            
-            // 清除延迟加载的物品
-            if (delayedItems.containsKey(playerId) && delayedItems.get(playerId).containsKey(windowId)) {
-                delayedItems.get(playerId).remove(windowId);
-                if (delayedItems.get(playerId).isEmpty()) {
-                    delayedItems.remove(playerId);
-                }
-            }
-            
-            // 如果是当前窗口，清除当前窗口ID记录
-            Integer currentId = currentWindowId.get(playerId);
-            if (currentId != null && currentId == windowId) {
-                currentWindowId.remove(playerId);
-            }
+            // 释放窗口会话，清除加载状态和延迟加载的物品
+            closeWindowSession(playerId, windowId);
             
             if (logLoadEvents) {
                 plugin.getLogger().info("玩家 " + player.getName() + " 关闭窗口，ID: " + windowId + "，清除加载状态");
@@ -537,68 +930,90 @@ public class PacketHandler {
     }
     
     // 开始延迟加载物品
-    private void startDelayedItemsLoading(final Player player, final int windowId) {
-        new BukkitRunnable() {
+    private void startDelayedItemsLoading(final Player player, final WindowSession session, final List<DelayedItem> itemsToLoad) {
+        long baseDelayTicks = Math.max(1L, itemLoadDelay / 50L); // 转换为tick延迟
+        DelayedSlotJob job = new DelayedSlotJob(player.getUniqueId(), session, itemsToLoad, new DelayedSlotJob.Sender() {
             @Override
-            public void run() {
-                UUID playerId = player.getUniqueId();
-                
-                // 检查玩家是否在线以及是否还有延迟加载的物品
-                if (!player.isOnline() || !delayedItems.containsKey(playerId) || 
-                    !delayedItems.get(playerId).containsKey(windowId)) {
-                    this.cancel();
-                    markContainerLoading(windowId, false);
-                    return;
-                }
-                
-                List<DelayedItem> itemsToLoad = delayedItems.get(playerId).get(windowId);
-                
-                // 检查是否还有物品需要加载
-                if (itemsToLoad.isEmpty()) {
-                    // 所有物品加载完成
-                    if (logLoadEvents) {
-                        plugin.getLogger().info("玩家 " + player.getName() + " 的窗口 " + windowId + " 物品加载完成");
-                    }
-                    delayedItems.get(playerId).remove(windowId);
-                    if (delayedItems.get(playerId).isEmpty()) {
-                        delayedItems.remove(playerId);
-                    }
-                    markContainerLoading(windowId, false);
-                    this.cancel();
-                    return;
-                }
-                
-                // 本次加载的物品数量
-                int loadedThisTick = 0;
-                Iterator<DelayedItem> iterator = itemsToLoad.iterator();
-                
-                while (iterator.hasNext() && loadedThisTick < itemsPerLoad) {
-                    DelayedItem delayedItem = iterator.next();
-                    
-                    // 发送SET_SLOT数据包更新单个物品槽
-                    try {
-                        PacketContainer setSlotPacket = protocolManager.createPacket(PacketType.Play.Server.SET_SLOT);
-                        setSlotPacket.getIntegers().write(0, windowId); // 窗口ID
-                        setSlotPacket.getIntegers().write(1, 0); // 状态ID（通常为0）
-                        setSlotPacket.getIntegers().write(2, delayedItem.slot); // 槽位索引
-                        setSlotPacket.getItemModifier().write(0, delayedItem.item); // 物品
-                        
-                        // 发送数据包给玩家
-                        protocolManager.sendServerPacket(player, setSlotPacket);
-                        
-                        // 移除已加载的物品
-                        iterator.remove();
-                        loadedThisTick++;
-                        
-                        if (logLoadEvents) {
-                            plugin.getLogger().info("为玩家 " + player.getName() + " 加载窗口 " + windowId + " 物品槽: " + delayedItem.slot);
-                        }
-                    } catch (Exception e) {
-                        plugin.getLogger().warning("发送SET_SLOT数据包时发生异常: " + e.getMessage());
-                    }
+            public boolean isOnline() {
+                return player.isOnline();
+            }
+            
+            @Override
+            public boolean sendSlot(DelayedItem delayedItem) {
+                return sendDelayedSlot(player, session, delayedItem);
+            }
+            
+            @Override
+            public boolean sendCoalesced(List<DelayedItem> batch, long batchBytes) {
+                return sendCoalescedWindowItems(player, session, batch, batchBytes);
+            }
+            
+            @Override
+            public void finished() {
+                if (logLoadEvents) {
+                    plugin.getLogger().info("玩家 " + player.getName() + " 的窗口 " + session.getWindowId() + " 物品加载完成");
                 }
             }
-        }.runTaskTimer(plugin, itemLoadDelay / 50L, itemLoadDelay / 50L); // 转换为tick延迟
+        }, byteBudget, adaptivePacer, baseDelayTicks, itemsPerLoad, coalesceDelayedItems, itemPacketCostBytes);
+        if (job.start()) {
+            packetScheduler.submit(player.getUniqueId(), PacketScheduler.Lane.SLOT, job);
+        }
+    }
+    
+    // 发送SET_SLOT数据包更新单个物品槽
+    private boolean sendDelayedSlot(Player player, WindowSession session, DelayedItem delayedItem) {
+        try {
+            PacketContainer setSlotPacket = protocolManager.createPacket(PacketType.Play.Server.SET_SLOT);
+            setSlotPacket.getIntegers().write(0, session.getWindowId()); // 窗口ID
+            setSlotPacket.getIntegers().write(1, session.getStateId()); // 服务端当前的容器状态ID
+            setSlotPacket.getIntegers().write(2, delayedItem.slot); // 槽位索引
+            setSlotPacket.getItemModifier().write(0, delayedItem.item); // 物品
+            
+            // 发送数据包给玩家
+            protocolManager.sendServerPacket(player, setSlotPacket);
+            adaptivePacer.recordBytes(player.getUniqueId(), WindowSession.SET_SLOT_HEADER_BYTES + delayedItem.weight);
+            session.updateSnapshot(delayedItem.slot, delayedItem.item, delayedItem.weight);
+            session.markDelivered(delayedItem.slot);
+            
+            if (logLoadEvents) {
+                plugin.getLogger().info("为玩家 " + player.getName() + " 加载窗口 " + session.getWindowId() + " 物品槽: " + delayedItem.slot);
+            }
+            return true;
+        } catch (Exception e) {
+            plugin.getLogger().warning("发送SET_SLOT数据包时发生异常: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // 以客户端当前的窗口内容加上本批物品构建完整的WINDOW_ITEMS并发送
+    private boolean sendCoalescedWindowItems(Player player, WindowSession session, List<DelayedItem> batch, long batchBytes) {
+        List<ItemStack> items = session.snapshotWith(batch);
+        if (items == null) return false;
+        try {
+            PacketContainer windowItemsPacket = protocolManager.createPacket(PacketType.Play.Server.WINDOW_ITEMS);
+            windowItemsPacket.getIntegers().write(0, session.getWindowId());
+            windowItemsPacket.getIntegers().write(1, session.getStateId());
+            windowItemsPacket.getItemListModifier().write(0, items);
+            ItemStack carried = session.getSnapshotCarried();
+            windowItemsPacket.getItemModifier().write(0, carried != null ? carried : new ItemStack(Material.AIR));
+            
+            // 不经过监听器发送，避免合并后的窗口内容再次被替换为占位物品
+            protocolManager.sendServerPacket(player, windowItemsPacket, false);
+            long bytes = Math.max(batchBytes, session.estimateCoalescedBytes(batch, batchBytes));
+            adaptivePacer.recordBytes(player.getUniqueId(), (int) Math.min(Integer.MAX_VALUE, bytes));
+        } catch (Exception e) {
+            plugin.getLogger().warning("发送合并的WINDOW_ITEMS数据包时发生异常: " + e.getMessage());
+            return false;
+        }
+        
+        for (DelayedItem delayedItem : batch) {
+            session.updateSnapshot(delayedItem.slot, delayedItem.item, delayedItem.weight);
+            session.markDelivered(delayedItem.slot);
+        }
+        if (logLoadEvents) {
+            plugin.getLogger().info("为玩家 " + player.getName() + " 合并加载窗口 " + session.getWindowId() + " 的 " + batch.size() + " 个物品槽");
+        }
+        return true;
     }
     
     // 处理方块实体数据数据包 - 增强版，专门解决双箱问题
@@ -696,14 +1111,15 @@ public class PacketHandler {
             debugInfo += "处理方块位置: " + position + " | ";
             
             // 首先检查该位置是否是我们隐藏的方块
-            UUID playerId = player.getUniqueId();
-            String dataKey = getDataKey(playerId, player.getWorld());
-            Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(dataKey);
+            HiddenBlockStore playerHiddenBlocks = getHiddenBlocks(player);
             
-            if (playerHiddenBlocks != null && playerHiddenBlocks.containsKey(position)) {
+            if (playerHiddenBlocks != null && playerHiddenBlocks.containsKey(blockKey(position))) {
                 // 如果是隐藏的方块，取消发送方块实体数据
                 plugin.getLogger().fine("取消发送隐藏方块的实体数据: " + position + " | " + debugInfo);
                 event.setCancelled(true);
+                if (packetStats.isEnabled()) {
+                    packetStats.recordDeferredBlockEntityBytes(player.getUniqueId(), ItemWeightEstimator.weighNbt(packet));
+                }
                 return;
             }
             
@@ -875,63 +1291,9 @@ public class PacketHandler {
         return sw.toString().substring(0, Math.min(300, sw.toString().length())); // 限制长度避免日志过大
     }
     
-    // 安全显示方块的方法，避免发送有问题的方块实体数据
-    private void safeShowBlock(Player player, BlockPosition pos, Material originalType) {
-        try {
-            // 检查方块位置是否有效
-            World world = player.getWorld();
-            if (world == null) {
-                throw new IllegalArgumentException("玩家世界为空");
-            }
-            
-            // 获取世界中的实际方块
-            Block realBlock = world.getBlockAt(pos.getX(), pos.getY(), pos.getZ());
-            
-            // 验证方块是否存在且类型与记录一致
-            if (realBlock.getType() != originalType && originalType != null) {
-                plugin.getLogger().warning("方块类型不匹配，但仍显示实际方块: " + pos + " (记录: " + originalType + ", 实际: " + realBlock.getType() + ")");
-                // 不返回，继续显示实际方块类型
-            }
-            
-            // 发送恢复方块的数据包
-            PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.BLOCK_CHANGE);
-            packet.getBlockPositionModifier().write(0, pos);
-            packet.getBlockData().write(0, WrappedBlockData.createData(realBlock.getBlockData()));
-            protocolManager.sendServerPacket(player, packet);
-            
-            // 对于大箱子等复合方块，安全地更新相邻方块
-            if (originalType == Material.CHEST || originalType == Material.TRAPPED_CHEST) {
-                try {
-                    updateAdjacentChestBlocks(player, world, pos.getX(), pos.getY(), pos.getZ());
-                } catch (Exception e) {
-                    plugin.getLogger().warning("更新相邻箱子时出错，但不影响主方块显示: " + e.getMessage());
-                }
-            }
-            
-            // 对于告示牌，安全地更新文本内容
-            if (isSignType(originalType)) {
-                try {
-                    updateSignText(player, realBlock, pos);
-                } catch (Exception e) {
-                    plugin.getLogger().warning("更新告示牌文本时出错，但不影响主方块显示: " + e.getMessage());
-                }
-            }
-            
-            // 从隐藏列表中移除
-            Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(player.getUniqueId());
-            if (playerHiddenBlocks != null) {
-                playerHiddenBlocks.remove(pos);
-            }
-        } catch (Exception e) {
-            // 捕获所有异常，确保不会因为单个方块显示失败而导致更严重的问题
-            throw new RuntimeException("显示方块时发生错误: " + pos, e);
-        }
-    }
-    
     // 增强隐藏方块管理，确保安全处理方块数据
     public void safeShowBlocks(Player player) {
-        UUID playerId = player.getUniqueId();
-        Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(playerId);
+        HiddenBlockStore playerHiddenBlocks = getHiddenBlocks(player);
         
         if (playerHiddenBlocks != null) {
             // 直接调用现有的显示方法，但添加额外的错误处理
@@ -954,10 +1316,10 @@ public class PacketHandler {
         plugin.getServer().getPluginManager().registerEvents(new Listener() {
             @EventHandler
             public void onPlayerMove(PlayerMoveEvent event) {
-                Location from = event.getFrom();
+                // 只在跨越区块段或移动超过阈值时标记，实际显示由调度器在tick内批量处理
                 Location to = event.getTo();
-                if (to != null && from.distanceSquared(to) > 2.0) { // 当移动超过约1.4格时
-                    checkAndShowNearbyBlocks(event.getPlayer());
+                if (to != null) {
+                    revealScheduler.onMove(event.getPlayer(), to);
                 }
             }
 
@@ -970,17 +1332,8 @@ public class PacketHandler {
                 if (event.getFrom().getWorld() != null && event.getTo() != null && 
                     !event.getFrom().getWorld().equals(event.getTo().getWorld())) {
                     UUID playerId = player.getUniqueId();
-                    // 清除隐藏方块数据
-                    Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(playerId);
-                    if (playerHiddenBlocks != null) {
-                        playerHiddenBlocks.clear();
-                    }
-                    // 清除已处理区块数据
-                    String dataKey = getDataKey(playerId, player.getWorld());
-            Set<Location> playerProcessedChunks = processedChunks.get(dataKey);
-            if (playerProcessedChunks != null) {
-                playerProcessedChunks.clear();
-                    }
+                    // 清除隐藏方块和已处理区块数据
+                    clearHiddenBlocks(playerId, event.getFrom().getWorld());
                     plugin.getLogger().info("玩家 " + player.getName() + " 跨世界传送，已清除旧世界数据");
                 }
                 
@@ -998,17 +1351,8 @@ public class PacketHandler {
                 Player player = event.getPlayer();
                 UUID playerId = player.getUniqueId();
                 
-                // 清除隐藏方块数据
-                Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(playerId);
-                if (playerHiddenBlocks != null) {
-                    playerHiddenBlocks.clear();
-                }
-                // 清除已处理区块数据
-                String dataKey = getDataKey(playerId, player.getWorld());
-                Set<Location> playerProcessedChunks = processedChunks.get(dataKey);
-                if (playerProcessedChunks != null) {
-                    playerProcessedChunks.clear();
-                }
+                // 清除隐藏方块和已处理区块数据
+                clearHiddenBlocks(playerId, event.getFrom());
                 
                 plugin.getLogger().info("玩家 " + player.getName() + " 切换世界，已清除旧世界数据");
                 
@@ -1022,99 +1366,64 @@ public class PacketHandler {
             @EventHandler
             public void onBlockBreak(BlockBreakEvent event) {
                 // 玩家破坏方块时，清除所有玩家对该方块的隐藏记录
-                Block block = event.getBlock();
-                World world = block.getWorld();
-                BlockPosition blockPos = new BlockPosition(block.getX(), block.getY(), block.getZ());
-                
-                // 清除所有玩家在该世界中对这个方块的隐藏记录
-                for (Map.Entry<String, Map<BlockPosition, Material>> entry : hiddenBlocks.entrySet()) {
-                    if (entry.getKey().endsWith("-" + world.getName())) {
-                        entry.getValue().remove(blockPos);
-                    }
-                }
+                forgetHiddenBlock(event.getBlock());
             }
             
             @EventHandler
             public void onBlockPlace(BlockPlaceEvent event) {
                 // 玩家放置方块时，清除所有玩家对该方块位置的隐藏记录
-                Block block = event.getBlock();
-                World world = block.getWorld();
-                BlockPosition blockPos = new BlockPosition(block.getX(), block.getY(), block.getZ());
-                
-                // 清除所有玩家在该世界中对这个方块位置的隐藏记录
-                for (Map.Entry<String, Map<BlockPosition, Material>> entry : hiddenBlocks.entrySet()) {
-                    if (entry.getKey().endsWith("-" + world.getName())) {
-                        entry.getValue().remove(blockPos);
-                    }
-                }
+                forgetHiddenBlock(event.getBlock());
             }
             
             @EventHandler
             public void onChunkUnload(ChunkUnloadEvent event) {
-                // 区块卸载时，清除所有玩家在该区块中的方块记录
+                // 区块卸载时，清除在该区块有记录的玩家的隐藏方块和已处理记录
                 Chunk chunk = event.getChunk();
                 World world = chunk.getWorld();
                 int chunkX = chunk.getX();
                 int chunkZ = chunk.getZ();
+                int minSectionY = world.getMinHeight() >> 4;
+                int maxSectionY = (world.getMaxHeight() - 1) >> 4;
                 
-                // 清除所有玩家在该世界中该区块的隐藏方块记录
-                for (Map.Entry<String, Map<BlockPosition, Material>> entry : hiddenBlocks.entrySet()) {
-                    if (entry.getKey().endsWith("-" + world.getName())) {
-                        // 使用迭代器安全移除
-                        Iterator<Map.Entry<BlockPosition, Material>> iterator = entry.getValue().entrySet().iterator();
-                        while (iterator.hasNext()) {
-                            BlockPosition pos = iterator.next().getKey();
-                            int blockChunkX = pos.getX() >> 4; // 方块X坐标转换为区块X
-                            int blockChunkZ = pos.getZ() >> 4; // 方块Z坐标转换为区块Z
-                            if (blockChunkX == chunkX && blockChunkZ == chunkZ) {
-                                iterator.remove();
-                            }
-                        }
-                    }
-                }
-                
-                // 清除所有玩家在该世界中该区块的已处理记录
-                for (Map.Entry<String, Set<Location>> entry : processedChunks.entrySet()) {
-                    if (entry.getKey().endsWith("-" + world.getName())) {
-                        // 使用迭代器安全移除
-                        Iterator<Location> iterator = entry.getValue().iterator();
-                        while (iterator.hasNext()) {
-                            Location loc = iterator.next();
-                            if (loc.getChunk().getX() == chunkX && loc.getChunk().getZ() == chunkZ) {
-                                iterator.remove();
-                            }
-                        }
+                for (UUID playerId : chunkPlayers.removeChunk(world.getUID(), BlockKeys.chunkKey(chunkX, chunkZ))) {
+                    HiddenBlockStore worldHiddenBlocks = getHiddenBlocks(playerId, world);
+                    if (worldHiddenBlocks != null) {
+                        worldHiddenBlocks.removeChunk(chunkX, chunkZ, minSectionY, maxSectionY);
                     }
                 }
             }
         }, plugin);
     }
     
+    // 清除在方块所在区块有记录的玩家对该方块的隐藏记录
+    private void forgetHiddenBlock(Block block) {
+        World world = block.getWorld();
+        long blockKey = BlockKeys.pack(block.getX(), block.getY(), block.getZ());
+        for (UUID playerId : chunkPlayers.playersAt(world.getUID(), BlockKeys.chunkKeyOf(blockKey))) {
+            HiddenBlockStore worldHiddenBlocks = getHiddenBlocks(playerId, world);
+            if (worldHiddenBlocks != null) {
+                worldHiddenBlocks.remove(blockKey);
+            }
+        }
+    }
+    
     // 检查并显示玩家附近的隐藏方块
     private void checkAndShowNearbyBlocks(Player player) {
-        UUID playerId = player.getUniqueId();
-        World world = player.getWorld();
-        String dataKey = getDataKey(playerId, world);
-        Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(dataKey);
+        HiddenBlockStore playerHiddenBlocks = getHiddenBlocks(player);
+        if (playerHiddenBlocks != null) {
+            restoreEvictedChunks(player, playerHiddenBlocks);
+        }
         
         if (playerHiddenBlocks != null && !playerHiddenBlocks.isEmpty()) {
-            List<BlockPosition> toShow = new ArrayList<>();
             Location playerLoc = player.getLocation();
-            double maxDistSq = maxDistance * maxDistance;
             
-            for (Map.Entry<BlockPosition, Material> entry : playerHiddenBlocks.entrySet()) {
-                BlockPosition pos = entry.getKey();
-                Location blockLoc = new Location(player.getWorld(), pos.getX(), pos.getY(), pos.getZ());
-                
-                // 如果方块现在在显示范围内
-                if (blockLoc.distanceSquared(playerLoc) <= maxDistSq) {
-                    toShow.add(pos);
-                }
-            }
+            // 只查询与显示范围相交的区块段
+            List<BlockPosition> toShow = visibilityRules.selectVisible(playerHiddenBlocks,
+                    playerLoc.getX(), playerLoc.getY(), playerLoc.getZ(), maxDistance);
             
-            // 显示应该可见的方块
-            for (BlockPosition pos : toShow) {
-                showBlock(player, pos);
+            // 显示应该可见的方块，玩家看得到的先显示
+            if (!toShow.isEmpty()) {
+                submitPriorityReveal(player, toShow);
             }
         }
         
@@ -1122,49 +1431,146 @@ public class PacketHandler {
         refreshVisibleBlocksInRange(player);
     }
     
-    // 显示单个隐藏的方块
-    private void showBlock(Player player, BlockPosition pos) {
+    // 估算显示一个方块需要发送的字节数，告示牌还需要计算文本
+    private int revealWeight(Player player, long key) {
+        Block block = player.getWorld().getBlockAt(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key));
+        if (!isSignType(block.getType())) {
+            return RevealJob.SECTION_UPDATE_ENTRY_BYTES;
+        }
+        return RevealJob.SECTION_UPDATE_ENTRY_BYTES + itemWeightEstimator.weighBlockEntity(block);
+    }
+    
+    // 显示任务取出的区块段加入本tick的显示批次，批次在tick结束时统一发送
+    private RevealJob.Sink revealSink(Player player, boolean onlyHidden) {
+        return new RevealJob.Sink() {
+            @Override
+            public int weigh(long blockKey) {
+                return revealWeight(player, blockKey);
+            }
+            
+            @Override
+            public void reveal(List<Long> section) {
+                queueReveal(player, section, onlyHidden);
+            }
+        };
+    }
+    
+    /**
+     * 将玩家附近应该显示的方块加入玩家的优先队列
+     * 每个玩家只有一个发送任务，按玩家视线和距离从队列中取出区块段；跳过已经不在隐藏列表中的方块。
+     */
+    private void submitPriorityReveal(Player player, List<BlockPosition> positions) {
         UUID playerId = player.getUniqueId();
-        String dataKey = getDataKey(playerId, player.getWorld());
-        Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(dataKey);
+        RevealQueue queue = revealQueues.computeIfAbsent(playerId, k -> new RevealQueue());
+        long[] keys = new long[positions.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = blockKey(positions.get(i));
+        }
+        if (!queue.addAll(keys)) return;
         
-        if (playerHiddenBlocks != null && playerHiddenBlocks.containsKey(pos)) {
-            playerHiddenBlocks.remove(pos);
+        packetScheduler.submit(playerId, PacketScheduler.Lane.REVEAL, new PriorityRevealJob(playerId, queue, q -> {
+            Location eye = player.getEyeLocation();
+            Vector direction = eye.getDirection();
+            q.updateView(eye.getX(), eye.getY(), eye.getZ(), direction.getX(), direction.getY(), direction.getZ());
+        }, byteBudget, revealSink(player, true)));
+    }
+    
+    // 将一组方块加入玩家本tick的显示批次，实际发送在本tick的调度结束后统一进行
+    private void queueReveal(Player player, List<Long> keys, boolean onlyHidden) {
+        World world = player.getWorld();
+        HiddenBlockStore playerHiddenBlocks = getHiddenBlocks(player);
+        RevealBatch batch = revealBatches.get(player.getUniqueId());
+        if (batch == null || !batch.world.equals(world)) {
+            batch = new RevealBatch(world);
+            revealBatches.put(player.getUniqueId(), batch);
+        }
+        
+        for (long key : keys) {
+            Material recorded = playerHiddenBlocks == null ? null : playerHiddenBlocks.remove(key);
+            if (recorded == null && onlyHidden) continue;
+            batch.add(key);
             
-            try {
-                // 获取世界中的实际方块，使用真实的方块状态
-                World world = player.getWorld();
-                Block realBlock = world.getBlockAt(pos.getX(), pos.getY(), pos.getZ());
-                Material type = realBlock.getType();
-                
-                // 发送恢复方块的数据包，使用实际方块的完整数据（包括方向、状态等）
-                PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.BLOCK_CHANGE);
-                packet.getBlockPositionModifier().write(0, pos);
-                // 直接使用方块的BlockData创建WrappedBlockData
-                packet.getBlockData().write(0, WrappedBlockData.createData(realBlock.getBlockData()));
-                protocolManager.sendServerPacket(player, packet);
-                
-                // 对于大箱子等复合方块，还需要发送相邻方块的更新
-                if (type == Material.CHEST || type == Material.TRAPPED_CHEST) {
-                    updateAdjacentChestBlocks(player, world, pos.getX(), pos.getY(), pos.getZ());
+            int x = BlockKeys.unpackX(key);
+            int y = BlockKeys.unpackY(key);
+            int z = BlockKeys.unpackZ(key);
+            Material type = world.getBlockAt(x, y, z).getType();
+            // 对于大箱子等复合方块，相邻的另一半也一起发送，同一位置在批次中只出现一次
+            if (type == Material.CHEST || type == Material.TRAPPED_CHEST) {
+                addAdjacentChests(world, x, y, z, batch);
+            }
+            // 对于告示牌，方块发送后还需要更新文本内容
+            if (isSignType(type)) {
+                batch.signs.add(key);
+            }
+        }
+    }
+    
+    // 发送本tick所有玩家的显示批次：每个区块段一个数据包，单个方块使用BLOCK_CHANGE
+    private void flushReveals() {
+        if (revealBatches.isEmpty()) return;
+        for (Map.Entry<UUID, RevealBatch> entry : revealBatches.entrySet()) {
+            Player player = plugin.getServer().getPlayer(entry.getKey());
+            RevealBatch batch = entry.getValue();
+            if (player == null || !player.isOnline() || !player.getWorld().equals(batch.world)) continue;
+            
+            for (Set<Long> section : batch.sections.values()) {
+                List<Block> blocks = new ArrayList<>(section.size());
+                for (long key : section) {
+                    // 使用世界中的实际方块，包括方向、状态等完整数据
+                    blocks.add(batch.world.getBlockAt(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key)));
                 }
-                
-                // 对于告示牌，额外发送UPDATE_SIGN数据包来更新文本内容
-                if (isSignType(type)) {
-                    updateSignText(player, realBlock, pos);
+                try {
+                    if (blocks.size() == 1) {
+                        Block block = blocks.get(0);
+                        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.BLOCK_CHANGE);
+                        packet.getBlockPositionModifier().write(0, new BlockPosition(block.getX(), block.getY(), block.getZ()));
+                        packet.getBlockData().write(0, WrappedBlockData.createData(block.getBlockData()));
+                        protocolManager.sendServerPacket(player, packet);
+                        adaptivePacer.recordBytes(player.getUniqueId(), RevealJob.BLOCK_CHANGE_BYTES);
+                    } else {
+                        sendSectionUpdate(player, blocks);
+                    }
+                } catch (Exception e) {
+                    plugin.getLogger().warning("显示方块时出错: " + e.getMessage());
                 }
-            } catch (Exception e) {
-                plugin.getLogger().warning("显示方块时出错: " + e.getMessage());
             }
+            
+            // 方块发送之后再更新告示牌文本，保证客户端已有对应的方块
+            for (long key : batch.signs) {
+                BlockPosition pos = toBlockPosition(key);
+                try {
+                    updateSignText(player, batch.world.getBlockAt(pos.getX(), pos.getY(), pos.getZ()), pos);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("更新告示牌文本时出错，但不影响主方块显示: " + e.getMessage());
+                }
+            }
+        }
+        revealBatches.clear();
+    }
+    
+    // 将同一区块段内的多个方块合并为一个MULTI_BLOCK_CHANGE数据包发送
+    private void sendSectionUpdate(Player player, List<Block> blocks) throws Exception {
+        Block first = blocks.get(0);
+        short[] offsets = new short[blocks.size()];
+        WrappedBlockData[] states = new WrappedBlockData[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            // 区块段内坐标打包为 x << 8 | z << 4 | y
+            offsets[i] = (short) (((block.getX() & 15) << 8) | ((block.getZ() & 15) << 4) | (block.getY() & 15));
+            states[i] = WrappedBlockData.createData(block.getBlockData());
         }
+        
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
+        packet.getSectionPositions().write(0, new BlockPosition(first.getX() >> 4, first.getY() >> 4, first.getZ() >> 4));
+        packet.getShortArrays().write(0, offsets);
+        packet.getBlockDataArrays().write(0, states);
+        protocolManager.sendServerPacket(player, packet);
+        adaptivePacer.recordBytes(player.getUniqueId(), RevealJob.sectionPacketBytes(blocks.size()));
     }
     
     // 判断方块是否为告示牌类型
     private boolean isSignType(Material type) {
-        if (type == null) return false;
-        
-        String typeName = type.toString();
-        return typeName.contains("SIGN") && !typeName.contains("ITEM_FRAME");
+        return BlockTypes.isSign(type);
     }
     
     // 更新告示牌文本内容
@@ -1232,63 +1638,21 @@ public class PacketHandler {
         }
     }
     
-    // 更新相邻的箱子方块，确保大箱子正确显示 - 增强版
-    private void updateAdjacentChestBlocks(Player player, World world, int x, int y, int z) {
-        if (world == null || player == null) {
-            plugin.getLogger().warning("更新相邻箱子时世界或玩家为空");
-            return;
-        }
+    // 将相邻的箱子方块加入显示批次，确保大箱子正确显示
+    private void addAdjacentChests(World world, int x, int y, int z, RevealBatch batch) {
+        if (y < world.getMinHeight() || y >= world.getMaxHeight()) return;
         
         // 检查四个方向的相邻方块
         int[][] directions = {{1,0,0}, {-1,0,0}, {0,0,1}, {0,0,-1}}; // 东、西、南、北
         
         for (int[] dir : directions) {
             int nx = x + dir[0];
-            int ny = y + dir[1];
             int nz = z + dir[2];
-            
-            // 安全检查坐标是否在世界范围内
-            if (nx < world.getMinHeight() || nx >= world.getMaxHeight() ||
-                ny < world.getMinHeight() || ny >= world.getMaxHeight() ||
-                nz < world.getMinHeight() || nz >= world.getMaxHeight()) {
-                continue;
-            }
-            
             try {
-                Block adjacentBlock = world.getBlockAt(nx, ny, nz);
-                if (adjacentBlock == null) continue;
-                
-                Material type = adjacentBlock.getType();
-                
-                // 如果相邻方块也是箱子，发送更新
+                Material type = world.getBlockAt(nx, y, nz).getType();
+                // 如果相邻方块也是箱子，一起发送
                 if (type == Material.CHEST || type == Material.TRAPPED_CHEST) {
-                    try {
-                        // 确保方块状态有效
-                        BlockState state = adjacentBlock.getState();
-                        if (state == null || !state.isPlaced()) {
-                            plugin.getLogger().fine("相邻箱子方块状态无效，跳过更新: " + nx + "," + ny + "," + nz);
-                            continue;
-                        }
-                        
-                        BlockPosition adjPos = new BlockPosition(nx, ny, nz);
-                        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.BLOCK_CHANGE);
-                        packet.getBlockPositionModifier().write(0, adjPos);
-                        // 直接使用方块的BlockData创建WrappedBlockData
-                        packet.getBlockData().write(0, WrappedBlockData.createData(adjacentBlock.getBlockData()));
-                        protocolManager.sendServerPacket(player, packet);
-                        
-                        // 延迟发送方块实体数据，避免时序问题
-                        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                            try {
-                                // 单独处理方块实体数据的更新，确保安全
-                                updateBlockEntityData(player, adjacentBlock, adjPos);
-                            } catch (Exception ex) {
-                                plugin.getLogger().fine("延迟更新相邻箱子方块实体数据时出错: " + ex.getMessage());
-                            }
-                        }, 1L);
-                    } catch (Exception e) {
-                        plugin.getLogger().fine("更新相邻箱子时出错: " + e.getMessage());
-                    }
+                    batch.add(BlockKeys.pack(nx, y, nz));
                 }
             } catch (Exception e) {
                 // 捕获每个方向的异常，不影响其他方向的处理
@@ -1297,28 +1661,6 @@ public class PacketHandler {
         }
     }
     
-    // 安全更新方块实体数据的辅助方法
-    private void updateBlockEntityData(Player player, Block block, BlockPosition pos) {
-        try {
-            // 获取方块状态
-            BlockState state = block.getState();
-            if (state == null) return;
-            
-            // 根据方块类型分别处理
-            if (state instanceof Sign) {
-                // 对于告示牌，使用专门的更新方法
-                updateSignText(player, block, pos);
-            } else if (state instanceof org.bukkit.block.Container) {
-                // 对于容器类方块，我们不直接发送方块实体数据
-                // 因为这可能导致block_entity_type为null的问题
-                // 相反，我们依赖服务器正常发送这些数据，并在handleBlockEntityDataPacket中进行安全过滤
-                plugin.getLogger().fine("容器方块实体数据将由服务器正常发送并经过安全过滤: " + pos);
-            }
-        } catch (Exception e) {
-            plugin.getLogger().fine("安全更新方块实体数据时出错: " + e.getMessage());
-        }
-    }
-    
     private void handleChunkDataPacket(PacketEvent event) {
         Player player = event.getPlayer();
         PacketContainer packet = event.getPacket();
@@ -1328,27 +1670,51 @@ public class PacketHandler {
             int chunkX = packet.getIntegers().read(0);
             int chunkZ = packet.getIntegers().read(1);
             
-            Location chunkLocation = new Location(player.getWorld(), chunkX * 16, 0, chunkZ * 16);
+            // 记录已处理的区块，后续处理都使用发送区块时玩家所在的世界
+            UUID worldId = player.getWorld().getUID();
+            chunkPlayers.markProcessed(player.getUniqueId(), worldId, BlockKeys.chunkKey(chunkX, chunkZ));
             
-            // 记录已处理的区块
-            String dataKey = getDataKey(player.getUniqueId(), player.getWorld());
-                processedChunks.computeIfAbsent(dataKey, k -> new HashSet<>()).add(chunkLocation);
+            // 改写模式：直接在区块数据包中移除远处的受保护方块，不再额外发送BLOCK_CHANGE
+            int rewrittenCount = -1;
+            if (rewriteChunkPackets) {
+                rewrittenCount = rewriteChunkPacket(player, packet, chunkX, chunkZ);
+                if (rewrittenCount > 0) {
+                    packetStats.recordRewritten(player.getUniqueId(), event.getPacketType().name());
+                }
+            }
             
-            // 异步扫描区块中的保护方块
-            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-                scanChunkForProtectedBlocks(player, chunkX, chunkZ);
-            });
+            if (rewrittenCount < 0) {
+                // 交给扫描流水线，在主线程根据索引处理区块中的保护方块
+                scanPipeline.requestView(player, worldId, chunkX, chunkZ);
+            }
             
-            // 区块加载后，立即检查并显示玩家附近应该可见的方块
-            plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                checkAndShowNearbyBlocks(player);
-            }, 2L); // 2 ticks后执行，确保区块完全加载
+            // 区块加载后检查并显示玩家附近应该可见的方块，同一tick内的多个区块只处理一次
+            revealScheduler.markDirty(player);
             
         } catch (Exception e) {
             plugin.getLogger().warning("处理区块数据包时出错: " + e.getMessage());
         }
     }
     
+    // 改写区块数据包，返回被隐藏的方块数量，无法改写时返回-1
+    private int rewriteChunkPacket(Player player, PacketContainer packet, int chunkX, int chunkZ) {
+        try {
+            World world = player.getWorld();
+            Location playerLoc = player.getLocation();
+            int hiddenCount = chunkRewriter.rewrite(packet, world, chunkX, chunkZ,
+                    blockIndex.getChunk(world, chunkX, chunkZ),
+                    playerLoc.getX(), playerLoc.getY(), playerLoc.getZ(), visibilityRules,
+                    (x, y, z, type) -> recordHiddenBlock(player, new BlockPosition(x, y, z), type));
+            if (hiddenCount > 0 && logLoadEvents) {
+                plugin.getLogger().info("为玩家 " + player.getName() + " 改写区块 " + chunkX + "," + chunkZ + "，隐藏 " + hiddenCount + " 个方块");
+            }
+            return hiddenCount;
+        } catch (Exception e) {
+            plugin.getLogger().fine("改写区块数据包失败，回退到逐个隐藏: " + e.getMessage());
+            return -1;
+        }
+    }
+    
     // 刷新玩家可见范围内的所有方块
     private void refreshVisibleBlocksInRange(Player player) {
         // 获取玩家当前位置
@@ -1357,20 +1723,17 @@ public class PacketHandler {
         if (world == null) return;
         
         // 获取玩家周围应该可见的方块
-        Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(player.getUniqueId());
+        HiddenBlockStore playerHiddenBlocks = getHiddenBlocks(player.getUniqueId(), world);
         if (playerHiddenBlocks == null) return;
         
         // 检查是否有距离玩家很近但仍然被隐藏的方块
-        double immediateDistSq = (maxDistance / 2) * (maxDistance / 2); // 更近的距离阈值
+        double immediateDistance = maxDistance / 2; // 更近的距离阈值
         
-        for (Map.Entry<BlockPosition, Material> entry : new HashMap<>(playerHiddenBlocks).entrySet()) {
-            BlockPosition pos = entry.getKey();
-            Location blockLoc = new Location(world, pos.getX(), pos.getY(), pos.getZ());
-            
-            // 如果方块距离玩家很近，强制显示
-            if (blockLoc.distanceSquared(playerLoc) <= immediateDistSq) {
-                showBlock(player, pos);
-            }
+        // 如果方块距离玩家很近，强制显示
+        List<BlockPosition> toShow = visibilityRules.selectVisible(playerHiddenBlocks,
+                playerLoc.getX(), playerLoc.getY(), playerLoc.getZ(), immediateDistance);
+        if (!toShow.isEmpty()) {
+            submitPriorityReveal(player, toShow);
         }
     }
     
@@ -1379,21 +1742,21 @@ public class PacketHandler {
         PacketContainer packet = event.getPacket();
         
         try {
-            // 获取方块位置
-            BlockPosition blockPos = packet.getBlockPositionModifier().read(0);
             WrappedBlockData blockData = packet.getBlockData().read(0);
             
-            // 检查是否为保护方块类型
+            // 检查是否为保护方块类型，查表即可，绝大多数方块变化到此为止
             try {
-                Material blockType = getMaterialFromBlockData(blockData);
-                if (blockType != null && protectedBlockTypes.contains(blockType)) {
-                    Location blockLocation = new Location(player.getWorld(), blockPos.getX(), blockPos.getY(), blockPos.getZ());
+                if (blockStateTable.isProtected(blockData)) {
+                    Material blockType = blockStateTable.getType(blockData);
+                    // 获取方块位置
+                    BlockPosition blockPos = packet.getBlockPositionModifier().read(0);
+                    Location playerLoc = player.getLocation();
                 
-                    // 计算与玩家的距离
-                    double distance = blockLocation.distanceSquared(player.getLocation());
-                
-                    // 如果距离超过最大距离，隐藏方块
-                    if (distance > maxDistance * maxDistance) {
+                    // 如果距离超过最大距离且方块携带的数据量需要延迟显示，隐藏方块
+                    if (visibilityRules.isFar(playerLoc.getX(), playerLoc.getY(), playerLoc.getZ(),
+                            blockPos.getX(), blockPos.getY(), blockPos.getZ())
+                            && visibilityRules.defers(blockIndex.getChunk(player.getWorld(), blockPos.getX() >> 4, blockPos.getZ() >> 4),
+                                    blockKey(blockPos))) {
                         hideBlock(player, blockPos, blockType);
                         event.setCancelled(true);
                     }
@@ -1406,45 +1769,65 @@ public class PacketHandler {
         }
     }
     
+    // 处理区块段批量方块变化包，将远处的受保护方块替换为空气
+    private void handleMultiBlockChangePacket(PacketEvent event) {
+        Player player = event.getPlayer();
+        PacketContainer packet = event.getPacket();
+        
+        WrappedBlockData[] states = packet.getBlockDataArrays().read(0);
+        if (states == null) return;
+        
+        // 先查表确认是否包含受保护方块，绝大多数批量变化到此为止
+        boolean hasProtected = false;
+        for (WrappedBlockData state : states) {
+            if (blockStateTable.isProtected(state)) {
+                hasProtected = true;
+                break;
+            }
+        }
+        if (!hasProtected) return;
+        
+        BlockPosition section = packet.getSectionPositions().read(0);
+        short[] offsets = packet.getShortArrays().read(0);
+        Location playerLoc = player.getLocation();
+        ProtectedBlockIndex.ChunkEntry entry = blockIndex.getChunk(player.getWorld(), section.getX(), section.getZ());
+        WrappedBlockData air = null;
+        
+        for (int i = 0; i < states.length && i < offsets.length; i++) {
+            if (!blockStateTable.isProtected(states[i])) continue;
+            int x = (section.getX() << 4) + ((offsets[i] >>> 8) & 15);
+            int z = (section.getZ() << 4) + ((offsets[i] >>> 4) & 15);
+            int y = (section.getY() << 4) + (offsets[i] & 15);
+            
+            // 如果距离超过最大距离且需要延迟显示，替换为空气并记录
+            if (visibilityRules.isFar(playerLoc.getX(), playerLoc.getY(), playerLoc.getZ(), x, y, z)
+                    && visibilityRules.defers(entry, BlockKeys.pack(x, y, z))) {
+                if (air == null) {
+                    air = WrappedBlockData.createData(Material.AIR);
+                }
+                recordHiddenBlock(player, new BlockPosition(x, y, z), blockStateTable.getType(states[i]));
+                states[i] = air;
+            }
+        }
+        
+        if (air != null) {
+            // 同一个数据包可能广播给多个玩家，只修改本玩家的副本
+            PacketContainer copy = packet.shallowClone();
+            copy.getBlockDataArrays().write(0, states);
+            event.setPacket(copy);
+            packetStats.recordRewritten(player.getUniqueId(), event.getPacketType().name());
+        }
+    }
+    
     // 删除重复的方法，保留原有的hideBlock实现
     
-    private void scanChunkForProtectedBlocks(Player player, int chunkX, int chunkZ) {
+    // 由扫描流水线在主线程调用，entry为区块分类结果
+    private void scanChunkForProtectedBlocks(Player player, ProtectedBlockIndex.ChunkEntry entry) {
         try {
-            World world = player.getWorld();
-            Chunk chunk = world.getChunkAt(chunkX, chunkZ);
-            
-            List<BlockData> protectedBlocks = new ArrayList<>();
-            
-            // 扫描区块中的所有保护方块（限制Y范围以提高性能）
-                for (int x = 0; x < 16; x++) {
-                    for (int z = 0; z < 16; z++) {
-                        // 只扫描可能有方块的Y范围
-                        for (int y = world.getMinHeight(); y < world.getMaxHeight(); y++) {
-                            Block block = chunk.getBlock(x, y, z);
-                            if (protectedBlockTypes.contains(block.getType())) {
-                                Location loc = block.getLocation();
-                                double distSq = loc.distanceSquared(player.getLocation());
-                                
-                                if (distSq > maxDistance * maxDistance) {
-                                    protectedBlocks.add(new BlockData(
-                                        new BlockPosition(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()),
-                                        block.getType(),
-                                        distSq,
-                                        loc.getBlockY()
-                                    ));
-                                }
-                            }
-                        }
-                    }
-                }
-            
-            // 按距离和Y坐标排序
-            protectedBlocks.sort((a, b) -> {
-                if (a.distanceSquared != b.distanceSquared) {
-                    return Double.compare(a.distanceSquared, b.distanceSquared);
-                }
-                return Integer.compare(b.y, a.y); // Y坐标降序
-            });
+            Location playerLoc = player.getLocation();
+            // 按距离和Y坐标排序的远处方块
+            List<VisibilityRules.HiddenCandidate> protectedBlocks = visibilityRules.selectHidden(entry,
+                    playerLoc.getX(), playerLoc.getY(), playerLoc.getZ());
             
             // 批量处理需要隐藏的方块
             if (!protectedBlocks.isEmpty()) {
@@ -1455,26 +1838,10 @@ public class PacketHandler {
         }
     }
     
-    private void sendBlockUpdates(Player player, List<BlockData> blocks) {
-        final int[] index = {0};
-        
-        plugin.getServer().getScheduler().runTaskTimer(plugin, task -> {
-            int count = 0;
-            
-            // 每次处理一定数量的方块
-            while (index[0] < blocks.size() && count < maxBlocksPerUpdate) {
-                BlockData blockData = blocks.get(index[0]);
-                hideBlock(player, blockData.position, blockData.material);
-                
-                index[0]++;
-                count++;
-            }
-            
-            // 完成所有方块处理后取消任务
-            if (index[0] >= blocks.size()) {
-                task.cancel();
-            }
-        }, 0, updateInterval / 50); // Minecraft tick为50ms
+    private void sendBlockUpdates(Player player, List<VisibilityRules.HiddenCandidate> blocks) {
+        // 每个方块消耗一个发包预算，速度由发包调度器统一控制
+        packetScheduler.submit(player.getUniqueId(), PacketScheduler.Lane.HIDE,
+                PacketScheduler.forEach(blocks, candidate -> hideBlock(player, candidate.position, candidate.material)));
     }
     
     private void hideBlock(Player player, BlockPosition pos, Material originalType) {
@@ -1486,67 +1853,29 @@ public class PacketHandler {
             
             // 发送伪装包给玩家
             protocolManager.sendServerPacket(player, packet);
+            adaptivePacer.recordBytes(player.getUniqueId(), RevealJob.BLOCK_CHANGE_BYTES);
             
             // 记录隐藏的方块
-            String dataKey = getDataKey(player.getUniqueId(), player.getWorld());
-            hiddenBlocks.computeIfAbsent(dataKey, k -> new HashMap<>()).put(pos, originalType);
+            recordHiddenBlock(player, pos, originalType);
         } catch (Exception e) {
             plugin.getLogger().warning("隐藏方块时出错: " + e.getMessage());
         }
     }
     
+    // 记录已对玩家隐藏的方块
+    private void recordHiddenBlock(Player player, BlockPosition pos, Material originalType) {
+        long key = blockKey(pos);
+        hiddenBlocksFor(player).put(key, originalType);
+        chunkPlayers.markHidden(player.getUniqueId(), player.getWorld().getUID(), BlockKeys.chunkKeyOf(key));
+    }
+    
     public void showBlocksForPlayer(Player player) {
-        UUID playerId = player.getUniqueId();
-        World world = player.getWorld();
-        String dataKey = getDataKey(playerId, world);
-        Map<BlockPosition, Material> playerHiddenBlocks = hiddenBlocks.get(dataKey);
+        HiddenBlockStore playerHiddenBlocks = getHiddenBlocks(player);
         
         if (playerHiddenBlocks != null) {
-            // 创建一个副本进行迭代，避免并发修改异常
-            Map<BlockPosition, Material> copyOfHiddenBlocks = new HashMap<>(playerHiddenBlocks);
-            List<BlockPosition> blocksToShow = new ArrayList<>(copyOfHiddenBlocks.keySet());
-            final int[] index = {0};
-            
-            // 批量显示方块，使用安全的显示方法
-            plugin.getServer().getScheduler().runTaskTimer(plugin, task -> {
-                try {
-                    int count = 0;
-                    
-                    while (index[0] < blocksToShow.size() && count < maxBlocksPerUpdate) {
-                        BlockPosition pos = blocksToShow.get(index[0]);
-                        Material originalType = copyOfHiddenBlocks.get(pos);
-                        
-                        // 使用安全的方法显示方块，增强异常处理
-                        try {
-                            safeShowBlock(player, pos, originalType);
-                        } catch (Exception e) {
-                            plugin.getLogger().warning("安全显示方块失败: " + e.getMessage());
-                            // 即使显示失败，也从隐藏列表中移除，避免后续再次尝试导致错误
-                            if (playerHiddenBlocks != null) {
-                                playerHiddenBlocks.remove(pos);
-                            }
-                        }
-                        
-                        index[0]++;
-                        count++;
-                    }
-                    
-                    if (index[0] >= blocksToShow.size()) {
-                        task.cancel();
-                        // 清除记录
-                        if (playerHiddenBlocks != null) {
-                            playerHiddenBlocks.clear();
-                        }
-                    }
-                } catch (Exception e) {
-                    plugin.getLogger().warning("批量显示方块任务异常: " + e.getMessage());
-                    task.cancel();
-                    // 出错时也尝试清理，避免状态不一致
-                    if (playerHiddenBlocks != null) {
-                        playerHiddenBlocks.clear();
-                    }
-                }
-            }, 0, updateInterval / 50);
+            // 批量显示方块（键的副本），速度由发包调度器统一控制，全部完成后清除记录
+            packetScheduler.submit(player.getUniqueId(), PacketScheduler.Lane.REVEAL, new RevealJob(player.getUniqueId(),
+                    playerHiddenBlocks.keys(), byteBudget, revealSink(player, false), playerHiddenBlocks::clear));
         }
     }
     
@@ -1554,22 +1883,36 @@ public class PacketHandler {
     
     public void unregister() {
         protocolManager.removePacketListeners(plugin);
+        scanPipeline.shutdown();
+        revealScheduler.shutdown();
+        packetSchedulerTask.cancel();
+        pacingTask.cancel();
+        stateSweepTask.cancel();
+        packetScheduler.clear();
+        revealBatches.clear();
+        revealQueues.clear();
+        adaptivePacer.clear();
+        byteBudget.clear();
+        shulkerCache.clear();
         hiddenBlocks.clear();
-        processedChunks.clear();
+        chunkPlayers.clear();
+        blockIndex.clear();
     }
     
-    // 内部类用于存储方块数据
-    private static class BlockData {
-        final BlockPosition position;
-        final Material material;
-        final double distanceSquared;
-        final int y;
+    // 单个玩家在一个tick内待显示的方块，按区块段分组，同一位置只发送一次
+    private static final class RevealBatch {
+        final World world;
+        // 区块段键 -> 段内方块键
+        final Map<Long, Set<Long>> sections = new LinkedHashMap<>();
+        // 发送后需要更新文本的告示牌
+        final Set<Long> signs = new LinkedHashSet<>();
+        
+        RevealBatch(World world) {
+            this.world = world;
+        }
         
-        BlockData(BlockPosition position, Material material, double distanceSquared, int y) {
-            this.position = position;
-            this.material = material;
-            this.distanceSquared = distanceSquared;
-            this.y = y;
+        void add(long key) {
+            sections.computeIfAbsent(BlockKeys.sectionKeyOf(key), k -> new LinkedHashSet<>()).add(key);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.minecraft.antiprotocoloverflow;
+
+/**
+ * 由PacketScheduler驱动的发包任务
+ * 每次调用只允许发送不超过预算数量的数据包，剩余工作留到之后的tick继续。
+ */
+public interface PacketJob {
+
+    /**
+     * 在预算内执行一步
+     * @param budget 本次最多允许发送的数据包数量
+     * @param tick 调度器当前的tick序号
+     * @return 实际发送（或消耗预算）的数据包数量
+     */
+    int run(int budget, long tick);
+
+    // 任务是否已经完成，完成后会从队列中移除
+    boolean isDone();
+
+    // 任务被取消或玩家离线时调用，默认不做任何处理
+    default void cancel() {
+    }
+}
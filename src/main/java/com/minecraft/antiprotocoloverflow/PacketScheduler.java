@@ -0,0 +1,307 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * 全局发包调度器
+ * 替代每个玩家、每个区块、每个窗口各自启动的定时任务：所有方块显示、隐藏和延迟物品槽发送都进入玩家自己的队列，
+ * 由一个每tick执行一次的tick()统一处理。
+ *
+ * 吞吐量由两个数值控制：全局每tick数据包预算和单个玩家每tick数据包预算。
+ * 同一tick内按轮次在玩家之间轮转分配预算，每轮每个玩家最多获得一个配额，保证登录高峰时各玩家公平推进。
+ * 同一玩家内按REVEAL、SLOT、HIDE的优先级处理。
+ *
+ * 本类不依赖Bukkit，由调用方负责每tick调用tick()。
+ */
+public class PacketScheduler {
+
+    // 任务通道，按声明顺序决定同一玩家内的优先级
+    public enum Lane {
+        REVEAL, // 显示进入范围的方块
+        SLOT,   // 延迟发送的物品槽
+        HIDE    // 隐藏远处的受保护方块
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    // 玩家UUID -> 玩家队列，保持插入顺序用于轮转
+    private final Map<UUID, PlayerQueue> queues = new LinkedHashMap<>();
+    private int globalBudget;
+    private int playerBudget;
+    private long currentTick;
+    private long failedJobCount;
+    // 可选的单玩家预算来源（如自适应速度控制），为null时使用固定的playerBudget
+    private ToIntFunction<UUID> playerBudgetFunction;
+    // 上一tick最后一个获得预算的玩家，下一tick从其后开始
+    private UUID resumeAfter;
+    // 新提交的任务先进入此队列，在tick开始时并入玩家队列，任务执行期间也可以安全提交
+    private final Queue<Submission> incoming = new ConcurrentLinkedQueue<>();
+
+    private static final class Submission {
+        final UUID playerId;
+        final Lane lane;
+        final PacketJob job;
+
+        Submission(UUID playerId, Lane lane, PacketJob job) {
+            this.playerId = playerId;
+            this.lane = lane;
+            this.job = job;
+        }
+    }
+
+    private static final class PlayerQueue {
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<PacketJob>[] lanes = new ArrayDeque[LANES.length];
+        int usedThisTick;
+        int budgetThisTick;
+        int failedJobs;
+
+        PlayerQueue() {
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new ArrayDeque<>();
+            }
+        }
+
+        boolean isEmpty() {
+            for (ArrayDeque<PacketJob> lane : lanes) {
+                if (!lane.isEmpty()) return false;
+            }
+            return true;
+        }
+
+        int size() {
+            int size = 0;
+            for (ArrayDeque<PacketJob> lane : lanes) {
+                size += lane.size();
+            }
+            return size;
+        }
+
+        // 在配额内执行任务，返回消耗的预算
+        int run(int quota, long tick) {
+            int used = 0;
+            for (ArrayDeque<PacketJob> lane : lanes) {
+                Iterator<PacketJob> iterator = lane.iterator();
+                while (iterator.hasNext() && used < quota) {
+                    PacketJob job = iterator.next();
+                    try {
+                        used += Math.max(0, job.run(quota - used, tick));
+                    } catch (RuntimeException e) {
+                        // 单个任务出错时丢弃该任务，不影响其他玩家
+                        failedJobs++;
+                        job.cancel();
+                        iterator.remove();
+                        continue;
+                    }
+                    if (job.isDone()) {
+                        iterator.remove();
+                    }
+                }
+                if (used >= quota) break;
+            }
+            return used;
+        }
+
+        void cancelAll() {
+            for (ArrayDeque<PacketJob> lane : lanes) {
+                for (PacketJob job : lane) {
+                    job.cancel();
+                }
+                lane.clear();
+            }
+        }
+    }
+
+    public PacketScheduler(int globalBudget, int playerBudget) {
+        setBudgets(globalBudget, playerBudget);
+    }
+
+    public synchronized void setBudgets(int globalBudget, int playerBudget) {
+        this.globalBudget = Math.max(1, globalBudget);
+        this.playerBudget = Math.max(1, playerBudget);
+    }
+
+    public synchronized void setPlayerBudgetFunction(ToIntFunction<UUID> playerBudgetFunction) {
+        this.playerBudgetFunction = playerBudgetFunction;
+    }
+
+    public synchronized int getPlayerBudget() {
+        return playerBudget;
+    }
+
+    // 将任务加入玩家的指定通道，可在任意线程调用，任务从下一次tick()开始执行
+    public void submit(UUID playerId, Lane lane, PacketJob job) {
+        incoming.add(new Submission(playerId, lane, job));
+    }
+
+    private void drainIncoming() {
+        Submission submission;
+        while ((submission = incoming.poll()) != null) {
+            queues.computeIfAbsent(submission.playerId, k -> new PlayerQueue())
+                    .lanes[submission.lane.ordinal()].add(submission.job);
+        }
+    }
+
+    // 取消并移除某个任务
+    public synchronized boolean cancel(UUID playerId, PacketJob job) {
+        drainIncoming();
+        PlayerQueue queue = queues.get(playerId);
+        if (queue == null) return false;
+        for (ArrayDeque<PacketJob> lane : queue.lanes) {
+            if (lane.remove(job)) {
+                job.cancel();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 玩家离线时移除其全部任务
+    public synchronized void removePlayer(UUID playerId) {
+        drainIncoming();
+        PlayerQueue queue = queues.remove(playerId);
+        if (queue != null) {
+            queue.cancelAll();
+        }
+    }
+
+    public synchronized void clear() {
+        drainIncoming();
+        for (PlayerQueue queue : queues.values()) {
+            queue.cancelAll();
+        }
+        queues.clear();
+        resumeAfter = null;
+    }
+
+    // 处理一个tick，返回本tick消耗的预算
+    public synchronized int tick() {
+        currentTick++;
+        drainIncoming();
+        if (queues.isEmpty()) return 0;
+
+        List<Map.Entry<UUID, PlayerQueue>> active = rotatedPlayers();
+        for (Map.Entry<UUID, PlayerQueue> entry : active) {
+            PlayerQueue queue = entry.getValue();
+            queue.usedThisTick = 0;
+            queue.budgetThisTick = playerBudgetFunction == null
+                    ? playerBudget : Math.max(1, playerBudgetFunction.applyAsInt(entry.getKey()));
+        }
+
+        int remaining = globalBudget;
+        boolean progressed = true;
+        while (remaining > 0 && progressed && !active.isEmpty()) {
+            progressed = false;
+            // 每轮把剩余预算平均分给仍有任务的玩家
+            int quantum = Math.max(1, remaining / active.size());
+            Iterator<Map.Entry<UUID, PlayerQueue>> iterator = active.iterator();
+            while (iterator.hasNext() && remaining > 0) {
+                Map.Entry<UUID, PlayerQueue> entry = iterator.next();
+                PlayerQueue queue = entry.getValue();
+                int quota = Math.min(quantum, Math.min(remaining, queue.budgetThisTick - queue.usedThisTick));
+                int used = quota > 0 ? queue.run(quota, currentTick) : 0;
+                queue.usedThisTick += used;
+                failedJobCount += queue.failedJobs;
+                queue.failedJobs = 0;
+                remaining -= used;
+                if (used > 0) {
+                    progressed = true;
+                    resumeAfter = entry.getKey();
+                }
+                // 任务已清空、预算已用完或本tick没有可执行的任务（如等待延迟）时退出轮转
+                if (used == 0 || queue.usedThisTick >= queue.budgetThisTick || queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        queues.values().removeIf(PlayerQueue::isEmpty);
+        return globalBudget - remaining;
+    }
+
+    // 从上一tick最后服务的玩家之后开始排列
+    private List<Map.Entry<UUID, PlayerQueue>> rotatedPlayers() {
+        List<Map.Entry<UUID, PlayerQueue>> players = new ArrayList<>(queues.entrySet());
+        if (resumeAfter != null) {
+            for (int i = 0; i < players.size(); i++) {
+                if (players.get(i).getKey().equals(resumeAfter)) {
+                    List<Map.Entry<UUID, PlayerQueue>> rotated = new ArrayList<>(players.size());
+                    rotated.addAll(players.subList(i + 1, players.size()));
+                    rotated.addAll(players.subList(0, i + 1));
+                    return rotated;
+                }
+            }
+        }
+        return players;
+    }
+
+    public synchronized int getQueuedJobCount() {
+        int count = incoming.size();
+        for (PlayerQueue queue : queues.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    // 某个玩家积压的任务数量（不含尚未并入队列的新任务）
+    public synchronized int getQueuedJobCount(UUID playerId) {
+        PlayerQueue queue = queues.get(playerId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public synchronized int getQueuedPlayerCount() {
+        return queues.size();
+    }
+
+    // 执行时抛出异常而被丢弃的任务总数
+    public synchronized long getFailedJobCount() {
+        return failedJobCount;
+    }
+
+    public synchronized long getCurrentTick() {
+        return currentTick;
+    }
+
+    // 创建逐个处理列表元素的任务，每个元素消耗一个预算，全部完成后执行onComplete
+    public static <T> PacketJob forEach(List<T> items, Consumer<T> action, Runnable onComplete) {
+        return new PacketJob() {
+            private int index;
+            private boolean done;
+
+            @Override
+            public int run(int budget, long tick) {
+                int count = 0;
+                while (index < items.size() && count < budget) {
+                    action.accept(items.get(index++));
+                    count++;
+                }
+                if (index >= items.size() && !done) {
+                    done = true;
+                    if (onComplete != null) {
+                        onComplete.run();
+                    }
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isDone() {
+                return done;
+            }
+        };
+    }
+
+    public static <T> PacketJob forEach(List<T> items, Consumer<T> action) {
+        return forEach(items, action, null);
+    }
+}
@@ -0,0 +1,352 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * 数据包处理统计
+ * 按数据包类型统计全局和每个玩家的拦截、取消、改写次数，延迟发送的物品和方块实体字节数，
+ * 以及每个处理器的纳秒耗时分布（按2的幂分桶的直方图）。
+ * 队列深度等瞬时值通过注册的取值函数在读取时计算。
+ *
+ * 记录方法可以在任意线程调用，只使用LongAdder累加，不加锁。本类不依赖Bukkit。
+ */
+public class PacketStats {
+    // 直方图分桶数，第i个桶记录[2^(i-1), 2^i)纳秒，最后一个桶包含更大的值
+    static final int HISTOGRAM_BUCKETS = 40;
+
+    private final Map<String, Counters> global = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerStats> players = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> timings = new ConcurrentHashMap<>();
+    private final LongAdder deferredItemBytes = new LongAdder();
+    private final LongAdder deferredBlockEntityBytes = new LongAdder();
+    // 瞬时值名称 -> 单个玩家的取值函数，全局值为所有玩家之和
+    private final Map<String, ToLongFunction<UUID>> gauges = new LinkedHashMap<>();
+    // 瞬时值的全局值，由数据源直接计算，与是否有玩家计数无关
+    private final Map<String, LongSupplier> gaugeTotals = new LinkedHashMap<>();
+    private volatile boolean enabled = true;
+    private volatile long resetAt = System.currentTimeMillis();
+
+    // 单个数据包类型的计数
+    public static final class Counters {
+        final LongAdder intercepted = new LongAdder();
+        final LongAdder cancelled = new LongAdder();
+        final LongAdder rewritten = new LongAdder();
+
+        public long getIntercepted() {
+            return intercepted.sum();
+        }
+
+        public long getCancelled() {
+            return cancelled.sum();
+        }
+
+        public long getRewritten() {
+            return rewritten.sum();
+        }
+    }
+
+    // 单个玩家的统计
+    public static final class PlayerStats {
+        final Map<String, Counters> counters = new ConcurrentHashMap<>();
+        final LongAdder deferredItemBytes = new LongAdder();
+        final LongAdder deferredBlockEntityBytes = new LongAdder();
+
+        public Map<String, Counters> getCounters() {
+            return new TreeMap<>(counters);
+        }
+
+        public long getDeferredItemBytes() {
+            return deferredItemBytes.sum();
+        }
+
+        public long getDeferredBlockEntityBytes() {
+            return deferredBlockEntityBytes.sum();
+        }
+    }
+
+    // 纳秒耗时直方图
+    public static final class Histogram {
+        final LongAdder[] buckets = new LongAdder[HISTOGRAM_BUCKETS];
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long value = Math.max(0L, nanos);
+            int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets[bucket].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSumNanos() {
+            return sum.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        // 各桶的计数，第i个桶的上限为2^i纳秒
+        public long[] getBuckets() {
+            long[] values = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                values[i] = buckets[i].sum();
+            }
+            return values;
+        }
+
+        // 估算分位数（0~1），返回所在桶的上限，无数据时返回0
+        public long percentile(double quantile) {
+            long[] values = getBuckets();
+            long total = 0;
+            for (long value : values) {
+                total += value;
+            }
+            if (total == 0) return 0L;
+            long target = (long) Math.ceil(total * Math.min(1.0, Math.max(0.0, quantile)));
+            long seen = 0;
+            for (int i = 0; i < values.length; i++) {
+                seen += values[i];
+                if (seen >= target && values[i] > 0) {
+                    return Math.min(1L << i, getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // 注册一个按玩家计算的瞬时值（如隐藏方块数量、延迟物品数量）及其全局值，只在读取统计时调用
+    public synchronized void registerGauge(String name, ToLongFunction<UUID> perPlayer, LongSupplier total) {
+        gauges.put(name, perPlayer);
+        gaugeTotals.put(name, total);
+    }
+
+    /**
+     * 记录一次数据包处理
+     * @param type 数据包类型名称
+     * @param cancelled 处理后数据包是否被取消
+     * @param nanos 处理耗时
+     */
+    public void recordPacket(UUID playerId, String type, boolean cancelled, long nanos) {
+        if (!enabled) return;
+        Counters counters = counters(global, type);
+        counters.intercepted.increment();
+        if (cancelled) counters.cancelled.increment();
+        if (playerId != null) {
+            Counters playerCounters = counters(player(playerId).counters, type);
+            playerCounters.intercepted.increment();
+            if (cancelled) playerCounters.cancelled.increment();
+        }
+        recordTiming(type, nanos);
+    }
+
+    // 记录一次数据包内容被改写（替换为空气、占位物品等）
+    public void recordRewritten(UUID playerId, String type) {
+        if (!enabled) return;
+        counters(global, type).rewritten.increment();
+        if (playerId != null) {
+            counters(player(playerId).counters, type).rewritten.increment();
+        }
+    }
+
+    // 记录被延迟发送的物品数据字节数
+    public void recordDeferredItemBytes(UUID playerId, long bytes) {
+        if (!enabled || bytes <= 0) return;
+        deferredItemBytes.add(bytes);
+        player(playerId).deferredItemBytes.add(bytes);
+    }
+
+    // 记录被延迟发送的方块实体数据字节数
+    public void recordDeferredBlockEntityBytes(UUID playerId, long bytes) {
+        if (!enabled || bytes <= 0) return;
+        deferredBlockEntityBytes.add(bytes);
+        player(playerId).deferredBlockEntityBytes.add(bytes);
+    }
+
+    // 记录一个处理器的耗时
+    public void recordTiming(String handler, long nanos) {
+        if (!enabled) return;
+        Histogram histogram = timings.get(handler);
+        if (histogram == null) {
+            histogram = timings.computeIfAbsent(handler, k -> new Histogram());
+        }
+        histogram.record(nanos);
+    }
+
+    public void removePlayer(UUID playerId) {
+        players.remove(playerId);
+    }
+
+    // 清空所有计数
+    public void reset() {
+        global.clear();
+        players.clear();
+        timings.clear();
+        deferredItemBytes.reset();
+        deferredBlockEntityBytes.reset();
+        resetAt = System.currentTimeMillis();
+    }
+
+    public long getResetAt() {
+        return resetAt;
+    }
+
+    public Map<String, Counters> getGlobalCounters() {
+        return new TreeMap<>(global);
+    }
+
+    public Map<String, Histogram> getTimings() {
+        return new TreeMap<>(timings);
+    }
+
+    // 获取玩家的统计，玩家没有任何记录时返回null
+    public PlayerStats getPlayerStats(UUID playerId) {
+        return players.get(playerId);
+    }
+
+    public long getDeferredItemBytes() {
+        return deferredItemBytes.sum();
+    }
+
+    public long getDeferredBlockEntityBytes() {
+        return deferredBlockEntityBytes.sum();
+    }
+
+    // 计算所有瞬时值的全局值，重置统计或关闭统计后仍反映当前状态
+    public synchronized Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gaugeTotals.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    // 计算单个玩家的所有瞬时值
+    public synchronized Map<String, Long> getGauges(UUID playerId) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, ToLongFunction<UUID>> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().applyAsLong(playerId));
+        }
+        return values;
+    }
+
+    /**
+     * 以JSON格式输出全部统计，用于导出后分析
+     * 瞬时值会在调用线程上计算，应在主线程调用
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"since\": " + resetAt + ",\n");
+        out.write("  \"now\": " + System.currentTimeMillis() + ",\n");
+        out.write("  \"deferredItemBytes\": " + getDeferredItemBytes() + ",\n");
+        out.write("  \"deferredBlockEntityBytes\": " + getDeferredBlockEntityBytes() + ",\n");
+        out.write("  \"gauges\": ");
+        writeLongs(out, getGauges());
+        out.write(",\n  \"packets\": ");
+        writeCounters(out, getGlobalCounters(), "  ");
+        out.write(",\n  \"timings\": {");
+        boolean first = true;
+        for (Map.Entry<String, Histogram> entry : getTimings().entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("    " + quote(entry.getKey()) + ": {\"count\": " + histogram.getCount()
+                    + ", \"sumNanos\": " + histogram.getSumNanos()
+                    + ", \"maxNanos\": " + histogram.getMaxNanos()
+                    + ", \"log2Buckets\": [");
+            long[] buckets = histogram.getBuckets();
+            for (int i = 0; i < buckets.length; i++) {
+                if (i > 0) out.write(", ");
+                out.write(Long.toString(buckets[i]));
+            }
+            out.write("]}");
+        }
+        out.write(first ? "}" : "\n  }");
+        out.write(",\n  \"players\": {");
+        first = true;
+        for (Map.Entry<UUID, PlayerStats> entry : players.entrySet()) {
+            PlayerStats stats = entry.getValue();
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("    " + quote(entry.getKey().toString()) + ": {\n");
+            out.write("      \"deferredItemBytes\": " + stats.getDeferredItemBytes() + ",\n");
+            out.write("      \"deferredBlockEntityBytes\": " + stats.getDeferredBlockEntityBytes() + ",\n");
+            out.write("      \"gauges\": ");
+            writeLongs(out, getGauges(entry.getKey()));
+            out.write(",\n      \"packets\": ");
+            writeCounters(out, stats.getCounters(), "      ");
+            out.write("\n    }");
+        }
+        out.write(first ? "}" : "\n  }");
+        out.write("\n}\n");
+    }
+
+    private static void writeLongs(Writer out, Map<String, Long> values) throws IOException {
+        out.write("{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            if (!first) out.write(", ");
+            first = false;
+            out.write(quote(entry.getKey()) + ": " + entry.getValue());
+        }
+        out.write("}");
+    }
+
+    private static void writeCounters(Writer out, Map<String, Counters> counters, String indent) throws IOException {
+        out.write("{");
+        boolean first = true;
+        for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+            Counters value = entry.getValue();
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write(indent + "  " + quote(entry.getKey()) + ": {\"intercepted\": " + value.getIntercepted()
+                    + ", \"cancelled\": " + value.getCancelled()
+                    + ", \"rewritten\": " + value.getRewritten() + "}");
+        }
+        out.write(first ? "}" : "\n" + indent + "}");
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private PlayerStats player(UUID playerId) {
+        PlayerStats stats = players.get(playerId);
+        return stats != null ? stats : players.computeIfAbsent(playerId, k -> new PlayerStats());
+    }
+
+    private static Counters counters(Map<String, Counters> map, String type) {
+        Counters counters = map.get(type);
+        return counters != null ? counters : map.computeIfAbsent(type, k -> new Counters());
+    }
+}
@@ -0,0 +1,51 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 玩家附近方块的显示任务
+ * 每个玩家只有一个，从玩家的RevealQueue中按视线和距离取出区块段，预算和分组方式与RevealJob相同；
+ * 每次执行前通过view用玩家当前的视线更新队列，玩家转身后看得到的方块先显示。
+ *
+ * 本类不依赖Bukkit，实际发送由RevealJob.Sink完成。
+ */
+public class PriorityRevealJob implements PacketJob {
+    private final UUID playerId;
+    private final RevealQueue queue;
+    private final Consumer<RevealQueue> view;
+    private final ByteBudget byteBudget;
+    private final RevealJob.Sink sink;
+
+    public PriorityRevealJob(UUID playerId, RevealQueue queue, Consumer<RevealQueue> view,
+                             ByteBudget byteBudget, RevealJob.Sink sink) {
+        this.playerId = playerId;
+        this.queue = queue;
+        this.view = view;
+        this.byteBudget = byteBudget;
+        this.sink = sink;
+    }
+
+    @Override
+    public int run(int budget, long tick) {
+        view.accept(queue);
+        // 每个区块段消耗一个发包预算，每个方块消耗字节额度
+        List<List<Long>> batch = queue.poll(budget, key -> byteBudget.tryConsume(playerId, sink.weigh(key), tick));
+        for (List<Long> section : batch) {
+            sink.reveal(section);
+        }
+        return batch.size();
+    }
+
+    @Override
+    public boolean isDone() {
+        return queue.finishIfEmpty();
+    }
+
+    @Override
+    public void cancel() {
+        queue.clear();
+        queue.finishIfEmpty();
+    }
+}
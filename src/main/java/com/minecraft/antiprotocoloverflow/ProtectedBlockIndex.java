@@ -0,0 +1,451 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * 世界级受保护方块索引
+ * 每个区块加载时由ChunkScanPipeline分类一次，之后由方块放置/破坏/物理事件维护，所有玩家共享同一份数据。
+ * 处理MAP_CHUNK时只需查询索引，不再逐格扫描区块；同一区块的分类布局也只计算一次，每个玩家只计算自己的距离。
+ * 启用数据量估算时同时记录每个方块携带的数据量，告示牌改字、容器关闭和漏斗等搬运物品后重新估算。
+ */
+public class ProtectedBlockIndex implements Listener {
+    private final JavaPlugin plugin;
+    private final Set<Material> protectedBlockTypes;
+    // 世界UID -> (区块键 -> 区块内的受保护方块)
+    private final Map<UUID, Map<Long, ChunkEntry>> worlds = new ConcurrentHashMap<>();
+    // 世界UID -> (正在扫描的区块键 -> 扫描期间是否发生过方块变化)
+    private final Map<UUID, Map<Long, Boolean>> scanningChunks = new ConcurrentHashMap<>();
+    // 估算方块携带数据量的函数，为null时不估算
+    private volatile ToIntFunction<BlockState> weigher;
+    // 等待重新估算数据量的方块，同一tick内多次变化只估算一次，仅在主线程访问
+    private final Set<Block> pendingReweigh = new HashSet<>();
+
+    // 写入扫描结果的结果
+    public enum InstallResult {
+        INSTALLED,  // 已写入索引
+        STALE,      // 扫描期间区块发生变化，需要重新扫描
+        DISCARDED   // 区块已卸载，结果被丢弃
+    }
+
+    /**
+     * 单个区块内的受保护方块，创建后不可修改，更新时整体替换，便于在数据包线程中无锁读取
+     * 每次替换都会得到新的版本号；按区块段整理的布局与版本绑定，第一次使用时计算，之后所有玩家复用
+     * weights为每个方块携带的数据量（字节），未估算时为null
+     */
+    public static final class ChunkEntry {
+        private static final AtomicLong VERSIONS = new AtomicLong();
+        static final ChunkEntry EMPTY = new ChunkEntry(new long[0], new Material[0], new int[0]);
+
+        final long[] positions;
+        final Material[] types;
+        final int[] weights;
+        private final long totalWeight;
+        private final long version;
+        private volatile ChunkLayout layout;
+
+        ChunkEntry(long[] positions, Material[] types) {
+            this(positions, types, null);
+        }
+
+        ChunkEntry(long[] positions, Material[] types, int[] weights) {
+            this.positions = positions;
+            this.types = types;
+            this.weights = weights;
+            long total = 0;
+            if (weights != null) {
+                for (int weight : weights) {
+                    total += weight;
+                }
+            }
+            this.totalWeight = total;
+            this.version = VERSIONS.incrementAndGet();
+        }
+
+        // 区块记录的版本号，方块变化后的新记录版本号更大
+        public long getVersion() {
+            return version;
+        }
+
+        // 是否已估算每个方块携带的数据量
+        public boolean isWeighed() {
+            return weights != null;
+        }
+
+        // 区块内受保护方块携带的数据总量（字节），未估算时为0
+        public long getTotalWeight() {
+            return totalWeight;
+        }
+
+        // 按区块段整理的布局，多个线程同时首次访问时可能重复计算，结果相同
+        ChunkLayout layout() {
+            ChunkLayout current = layout;
+            if (current == null) {
+                current = ChunkLayout.build(positions, types, weights);
+                layout = current;
+            } else {
+                ChunkLayout.recordReuse();
+            }
+            return current;
+        }
+
+        public int size() {
+            return positions.length;
+        }
+
+        public boolean isEmpty() {
+            return positions.length == 0;
+        }
+
+        int indexOf(long position) {
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] == position) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // 返回替换或新增一个方块后的新区块记录，区块未估算数据量时忽略weight
+        ChunkEntry with(long position, Material type, int weight) {
+            int index = indexOf(position);
+            if (index >= 0) {
+                if (types[index] == type && (weights == null || weights[index] == weight)) return this;
+                Material[] newTypes = types.clone();
+                newTypes[index] = type;
+                int[] newWeights = null;
+                if (weights != null) {
+                    newWeights = weights.clone();
+                    newWeights[index] = weight;
+                }
+                return new ChunkEntry(positions, newTypes, newWeights);
+            }
+            long[] newPositions = Arrays.copyOf(positions, positions.length + 1);
+            Material[] newTypes = Arrays.copyOf(types, types.length + 1);
+            newPositions[positions.length] = position;
+            newTypes[types.length] = type;
+            int[] newWeights = null;
+            if (weights != null) {
+                newWeights = Arrays.copyOf(weights, weights.length + 1);
+                newWeights[weights.length] = weight;
+            }
+            return new ChunkEntry(newPositions, newTypes, newWeights);
+        }
+
+        // 返回移除一个方块后的新区块记录
+        ChunkEntry without(long position) {
+            int index = indexOf(position);
+            if (index < 0) return this;
+            int last = positions.length - 1;
+            long[] newPositions = new long[last];
+            Material[] newTypes = new Material[last];
+            System.arraycopy(positions, 0, newPositions, 0, index);
+            System.arraycopy(positions, index + 1, newPositions, index, last - index);
+            System.arraycopy(types, 0, newTypes, 0, index);
+            System.arraycopy(types, index + 1, newTypes, index, last - index);
+            int[] newWeights = null;
+            if (weights != null) {
+                newWeights = new int[last];
+                System.arraycopy(weights, 0, newWeights, 0, index);
+                System.arraycopy(weights, index + 1, newWeights, index, last - index);
+            }
+            return new ChunkEntry(newPositions, newTypes, newWeights);
+        }
+    }
+
+    public ProtectedBlockIndex(JavaPlugin plugin, Set<Material> protectedBlockTypes) {
+        this.plugin = plugin;
+        this.protectedBlockTypes = protectedBlockTypes;
+    }
+
+    // 设置估算方块携带数据量的函数，为null时不再估算，之后建立的区块记录没有数据量
+    public void setWeigher(ToIntFunction<BlockState> weigher) {
+        this.weigher = weigher;
+    }
+
+    // 标记区块正在扫描，返回是否需要提交新的扫描任务
+    public boolean markScanning(World world, int chunkX, int chunkZ) {
+        Boolean previous = scanningMap(world).put(BlockKeys.chunkKey(chunkX, chunkZ), Boolean.FALSE);
+        return previous == null || previous;
+    }
+
+    public boolean isScanning(World world, int chunkX, int chunkZ) {
+        Map<Long, Boolean> scanning = scanningChunks.get(world.getUID());
+        return scanning != null && scanning.containsKey(BlockKeys.chunkKey(chunkX, chunkZ));
+    }
+
+    // 写入扫描结果，必须在主线程调用；启用数据量估算时在写入前估算分类出的受保护方块
+    public InstallResult install(World world, int chunkX, int chunkZ, ChunkEntry entry) {
+        long chunkKey = BlockKeys.chunkKey(chunkX, chunkZ);
+        Map<Long, Boolean> scanning = scanningMap(world);
+        Boolean dirty = scanning.get(chunkKey);
+        if (dirty == null) {
+            // 扫描期间区块已卸载
+            return InstallResult.DISCARDED;
+        }
+        if (dirty) {
+            return InstallResult.STALE;
+        }
+        scanning.remove(chunkKey);
+        worldMap(world).put(chunkKey, weigh(world, entry));
+        return InstallResult.INSTALLED;
+    }
+
+    // 只读取分类出的受保护方块的状态，不遍历区块内的全部方块实体
+    private ChunkEntry weigh(World world, ChunkEntry entry) {
+        ToIntFunction<BlockState> current = weigher;
+        if (current == null || entry.isWeighed()) return entry;
+        int[] weights = new int[entry.positions.length];
+        for (int i = 0; i < weights.length; i++) {
+            long position = entry.positions[i];
+            Block block = world.getBlockAt(BlockKeys.unpackX(position), BlockKeys.unpackY(position), BlockKeys.unpackZ(position));
+            weights[i] = current.applyAsInt(block.getState());
+        }
+        return new ChunkEntry(entry.positions, entry.types, weights);
+    }
+
+    // 查询区块内的受保护方块，区块尚未建立索引时返回null，可在任意线程调用
+    public ChunkEntry getChunk(World world, int chunkX, int chunkZ) {
+        Map<Long, ChunkEntry> chunks = worlds.get(world.getUID());
+        return chunks == null ? null : chunks.get(BlockKeys.chunkKey(chunkX, chunkZ));
+    }
+
+    // 根据方块当前的实际类型更新索引
+    public void updateBlock(Block block) {
+        long chunkKey = BlockKeys.chunkKey(block.getX() >> 4, block.getZ() >> 4);
+        markDirty(block.getWorld(), chunkKey);
+        Map<Long, ChunkEntry> chunks = worlds.get(block.getWorld().getUID());
+        if (chunks == null) return;
+
+        long position = BlockKeys.pack(block.getX(), block.getY(), block.getZ());
+        Material type = block.getType();
+        if (protectedBlockTypes.contains(type)) {
+            ToIntFunction<BlockState> current = weigher;
+            int weight = current == null ? 0 : current.applyAsInt(block.getState());
+            chunks.computeIfPresent(chunkKey, (k, entry) -> entry.with(position, type, weight));
+        } else {
+            chunks.computeIfPresent(chunkKey, (k, entry) -> entry.without(position));
+        }
+    }
+
+    // 检查某个位置是否被记录为受保护方块
+    public boolean contains(World world, int x, int y, int z) {
+        ChunkEntry entry = getChunk(world, x >> 4, z >> 4);
+        return entry != null && entry.indexOf(BlockKeys.pack(x, y, z)) >= 0;
+    }
+
+    public void removeChunk(World world, int chunkX, int chunkZ) {
+        long chunkKey = BlockKeys.chunkKey(chunkX, chunkZ);
+        Map<Long, ChunkEntry> chunks = worlds.get(world.getUID());
+        if (chunks != null) {
+            chunks.remove(chunkKey);
+        }
+        Map<Long, Boolean> scanning = scanningChunks.get(world.getUID());
+        if (scanning != null) {
+            scanning.remove(chunkKey);
+        }
+    }
+
+    public void clear() {
+        worlds.clear();
+        scanningChunks.clear();
+    }
+
+    // 已建立索引的区块总数
+    public int getIndexedChunkCount() {
+        int count = 0;
+        for (Map<Long, ChunkEntry> chunks : worlds.values()) {
+            count += chunks.size();
+        }
+        return count;
+    }
+
+    // 计算过的区块布局数量
+    public long getLayoutBuildCount() {
+        return ChunkLayout.getBuildCount();
+    }
+
+    // 复用已有区块布局的次数
+    public long getLayoutReuseCount() {
+        return ChunkLayout.getReuseCount();
+    }
+
+    private Map<Long, ChunkEntry> worldMap(World world) {
+        return worlds.computeIfAbsent(world.getUID(), k -> new ConcurrentHashMap<>());
+    }
+
+    private Map<Long, Boolean> scanningMap(World world) {
+        return scanningChunks.computeIfAbsent(world.getUID(), k -> new ConcurrentHashMap<>());
+    }
+
+    // 正在扫描的区块发生方块变化时，标记扫描结果已过期
+    private void markDirty(World world, long chunkKey) {
+        Map<Long, Boolean> scanning = scanningChunks.get(world.getUID());
+        if (scanning != null) {
+            scanning.replace(chunkKey, Boolean.TRUE);
+        }
+    }
+
+    // 下一tick根据实际方块类型刷新索引，用于事件触发时方块尚未真正改变的情况
+    private void updateLater(Block block) {
+        plugin.getServer().getScheduler().runTask(plugin, () -> updateBlock(block));
+    }
+
+    private void updateLater(List<Block> blocks) {
+        for (Block block : blocks) {
+            if (contains(block.getWorld(), block.getX(), block.getY(), block.getZ())) {
+                updateLater(block);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        removeChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        worlds.remove(event.getWorld().getUID());
+        scanningChunks.remove(event.getWorld().getUID());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        // 放置事件触发时方块已经写入世界
+        updateBlock(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        long chunkKey = BlockKeys.chunkKey(block.getX() >> 4, block.getZ() >> 4);
+        markDirty(block.getWorld(), chunkKey);
+        Map<Long, ChunkEntry> chunks = worlds.get(block.getWorld().getUID());
+        if (chunks != null) {
+            long position = BlockKeys.pack(block.getX(), block.getY(), block.getZ());
+            chunks.computeIfPresent(chunkKey, (k, entry) -> entry.without(position));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        // 物理事件非常频繁，只处理索引中已记录的位置（如失去支撑而掉落的告示牌）
+        Block block = event.getBlock();
+        if (contains(block.getWorld(), block.getX(), block.getY(), block.getZ())) {
+            updateLater(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSignChange(SignChangeEvent event) {
+        // 放置告示牌时文字在放置事件之后才写入，事件结束后重新估算
+        Block block = event.getBlock();
+        if (contains(block.getWorld(), block.getX(), block.getY(), block.getZ())) {
+            updateLater(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        // 玩家关闭容器时内容可能已经变化，重新估算容器携带的数据量
+        InventoryHolder holder = event.getInventory().getHolder();
+        if (holder instanceof DoubleChest) {
+            DoubleChest chest = (DoubleChest) holder;
+            reweigh(chest.getLeftSide());
+            reweigh(chest.getRightSide());
+        } else {
+            reweigh(holder);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryMoveItem(InventoryMoveItemEvent event) {
+        // 漏斗、投掷器等搬运物品时不会关闭容器，按容器位置重新估算，不读取容器持有者以避免创建方块状态快照
+        if (weigher == null) return;
+        reweigh(event.getSource());
+        reweigh(event.getDestination());
+    }
+
+    private void reweigh(Inventory inventory) {
+        if (inventory instanceof DoubleChestInventory) {
+            DoubleChestInventory chest = (DoubleChestInventory) inventory;
+            reweigh(chest.getLeftSide().getLocation());
+            reweigh(chest.getRightSide().getLocation());
+        } else {
+            reweigh(inventory.getLocation());
+        }
+    }
+
+    private void reweigh(Location location) {
+        if (location == null || location.getWorld() == null) return;
+        World world = location.getWorld();
+        if (contains(world, location.getBlockX(), location.getBlockY(), location.getBlockZ())) {
+            reweighLater(world.getBlockAt(location.getBlockX(), location.getBlockY(), location.getBlockZ()));
+        }
+    }
+
+    private void reweigh(InventoryHolder holder) {
+        if (weigher == null || !(holder instanceof BlockState)) return;
+        Block block = ((BlockState) holder).getBlock();
+        if (contains(block.getWorld(), block.getX(), block.getY(), block.getZ())) {
+            reweighLater(block);
+        }
+    }
+
+    // 合并同一tick内的重新估算，漏斗频繁搬运时每个容器每tick最多估算一次
+    private void reweighLater(Block block) {
+        if (!pendingReweigh.add(block) || pendingReweigh.size() > 1) return;
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            List<Block> blocks = new ArrayList<>(pendingReweigh);
+            pendingReweigh.clear();
+            for (Block pending : blocks) {
+                updateBlock(pending);
+            }
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        updateLater(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        updateLater(event.blockList());
+    }
+}
@@ -0,0 +1,99 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 批量显示任务
+ * 方块按区块段排序，每次执行取出不超过预算数量的区块段交给Sink，每个区块段消耗一个数据包预算，每个方块消耗字节额度；
+ * 同一tick内同一区块段的方块作为一组交给Sink，由Sink合并为一个MULTI_BLOCK_CHANGE数据包。全部取出后调用onComplete。
+ *
+ * 本类不依赖Bukkit，实际发送由Sink完成。
+ */
+public class RevealJob implements PacketJob {
+    // 数据包的大致字节数
+    public static final int BLOCK_CHANGE_BYTES = 12; // BLOCK_CHANGE
+    public static final int SECTION_UPDATE_HEADER_BYTES = 10; // MULTI_BLOCK_CHANGE数据包头
+    public static final int SECTION_UPDATE_ENTRY_BYTES = 5; // MULTI_BLOCK_CHANGE中的每个方块
+
+    // 接收每次取出的区块段
+    public interface Sink {
+        // 显示一个方块需要的字节额度
+        int weigh(long blockKey);
+
+        // 显示同一区块段中的一组方块
+        void reveal(List<Long> section);
+    }
+
+    private final UUID playerId;
+    private final long[] blockKeys;
+    private final ByteBudget byteBudget;
+    private final Sink sink;
+    private final Runnable onComplete;
+    private int index;
+    private boolean done;
+
+    public RevealJob(UUID playerId, long[] blockKeys, ByteBudget byteBudget, Sink sink, Runnable onComplete) {
+        this.playerId = playerId;
+        this.blockKeys = sortBySection(blockKeys);
+        this.byteBudget = byteBudget;
+        this.sink = sink;
+        this.onComplete = onComplete;
+    }
+
+    // 一个区块段的方块显示时发送的字节数：单个方块使用BLOCK_CHANGE，多个方块使用MULTI_BLOCK_CHANGE
+    public static int sectionPacketBytes(int blocks) {
+        return blocks == 1 ? BLOCK_CHANGE_BYTES : SECTION_UPDATE_HEADER_BYTES + blocks * SECTION_UPDATE_ENTRY_BYTES;
+    }
+
+    private static long[] sortBySection(long[] blockKeys) {
+        List<Long> sorted = new ArrayList<>(blockKeys.length);
+        for (long key : blockKeys) {
+            sorted.add(key);
+        }
+        sorted.sort(Comparator.comparingLong(BlockKeys::sectionKeyOf));
+        long[] result = new long[sorted.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sorted.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public int run(int budget, long tick) {
+        Map<Long, List<Long>> batch = new LinkedHashMap<>();
+        while (index < blockKeys.length) {
+            long key = blockKeys[index];
+            long sectionKey = BlockKeys.sectionKeyOf(key);
+            List<Long> section = batch.get(sectionKey);
+            if (section == null && batch.size() >= budget) break;
+            if (!byteBudget.tryConsume(playerId, sink.weigh(key), tick)) break;
+            if (section == null) {
+                section = new ArrayList<>();
+                batch.put(sectionKey, section);
+            }
+            section.add(key);
+            index++;
+        }
+
+        for (List<Long> section : batch.values()) {
+            sink.reveal(section);
+        }
+        if (index >= blockKeys.length && !done) {
+            done = true;
+            if (onComplete != null) {
+                onComplete.run();
+            }
+        }
+        return batch.size();
+    }
+
+    @Override
+    public boolean isDone() {
+        return done;
+    }
+}
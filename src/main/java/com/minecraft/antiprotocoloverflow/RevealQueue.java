@@ -0,0 +1,200 @@
+package com.minecraft.antiprotocoloverflow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * 单个玩家的待显示方块优先队列
+ * 方块按区块段分组，每个区块段按与玩家视线的关系评分：玩家正在看的区块段最先显示，其次是视野内的，
+ * 身后的最后显示，同一类中距离近的优先。每tick的发包预算有限时，玩家真正看得到的方块先出现。
+ * 玩家转身或移动超过阈值时只按区块段重新评分，不需要逐个方块计算；同一方块重复加入只保留一份。
+ *
+ * 只使用坐标，不访问世界和玩家对象，可以单独运行。所有方法都是同步的。
+ */
+public class RevealQueue {
+    // 视线方向附近的夹角，视为玩家正在看
+    private static final double LOOK_ANGLE = Math.toRadians(15);
+    // 视野的半角，按常见FOV的水平方向取值
+    private static final double FOV_ANGLE = Math.toRadians(60);
+    // 区块段外接球半径（8 * sqrt(3)）
+    private static final double SECTION_RADIUS = 13.86;
+    // 与玩家距离不超过该值的区块段不论朝向都按正在看处理
+    private static final double NEAR_DISTANCE = 8;
+    private static final double LOOK_FACTOR = 0.5;
+    private static final double BEHIND_FACTOR = 3.0;
+    // 视线方向变化超过该夹角或移动超过该距离时重新评分
+    private static final double RESCORE_COS = Math.cos(Math.toRadians(10));
+    private static final double RESCORE_DISTANCE_SQUARED = 4;
+
+    // 区块段键 -> 段内待显示的方块
+    private final Map<Long, Section> sections = new HashMap<>();
+    // 按评分升序排列的区块段
+    private final List<Section> ordered = new ArrayList<>();
+    private boolean orderDirty;
+    private boolean active;
+    private int blockCount;
+
+    // 最近一次评分使用的眼睛位置和视线方向（单位向量）
+    private boolean hasView;
+    private double eyeX;
+    private double eyeY;
+    private double eyeZ;
+    private double dirX;
+    private double dirY;
+    private double dirZ;
+    private long rescoreCount;
+
+    private static final class Section {
+        final long key;
+        final Set<Long> blocks = new LinkedHashSet<>();
+        double score;
+
+        Section(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 加入待显示的方块
+     * @return 队列之前没有发送任务在处理时返回true，调用方需要提交新的发送任务
+     */
+    public synchronized boolean addAll(long[] blockKeys) {
+        for (long blockKey : blockKeys) {
+            long sectionKey = BlockKeys.sectionKeyOf(blockKey);
+            Section section = sections.get(sectionKey);
+            if (section == null) {
+                section = new Section(sectionKey);
+                section.score = score(sectionKey);
+                sections.put(sectionKey, section);
+                ordered.add(section);
+                orderDirty = true;
+            }
+            if (section.blocks.add(blockKey)) {
+                blockCount++;
+            }
+        }
+        if (active || blockCount == 0) return false;
+        active = true;
+        return true;
+    }
+
+    /**
+     * 更新玩家的眼睛位置和视线方向，转身或移动超过阈值时按区块段重新评分
+     * @return 是否重新评分
+     */
+    public synchronized boolean updateView(double x, double y, double z, double directionX, double directionY, double directionZ) {
+        double length = Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        if (length == 0) return false;
+        directionX /= length;
+        directionY /= length;
+        directionZ /= length;
+        if (hasView) {
+            double mx = x - eyeX;
+            double my = y - eyeY;
+            double mz = z - eyeZ;
+            double turned = directionX * dirX + directionY * dirY + directionZ * dirZ;
+            if (turned >= RESCORE_COS && mx * mx + my * my + mz * mz <= RESCORE_DISTANCE_SQUARED) return false;
+        }
+        hasView = true;
+        eyeX = x;
+        eyeY = y;
+        eyeZ = z;
+        dirX = directionX;
+        dirY = directionY;
+        dirZ = directionZ;
+        for (Section section : ordered) {
+            section.score = score(section.key);
+        }
+        orderDirty = true;
+        rescoreCount++;
+        return true;
+    }
+
+    /**
+     * 按优先级取出方块：最多取maxSections个区块段，每个方块先经过accept检查（如字节额度），检查失败时停止
+     * @return 按区块段分组的方块，优先级高的区块段在前
+     */
+    public synchronized List<List<Long>> poll(int maxSections, LongPredicate accept) {
+        if (orderDirty) {
+            ordered.sort((a, b) -> Double.compare(a.score, b.score));
+            orderDirty = false;
+        }
+        List<List<Long>> batch = new ArrayList<>();
+        int index = 0;
+        while (index < ordered.size() && batch.size() < maxSections) {
+            Section section = ordered.get(index);
+            List<Long> taken = new ArrayList<>();
+            boolean stopped = false;
+            for (Iterator<Long> iterator = section.blocks.iterator(); iterator.hasNext(); ) {
+                long blockKey = iterator.next();
+                if (!accept.test(blockKey)) {
+                    stopped = true;
+                    break;
+                }
+                iterator.remove();
+                blockCount--;
+                taken.add(blockKey);
+            }
+            if (!taken.isEmpty()) {
+                batch.add(taken);
+            }
+            if (section.blocks.isEmpty()) {
+                sections.remove(section.key);
+                ordered.remove(index);
+            } else {
+                index++;
+            }
+            if (stopped) break;
+        }
+        return batch;
+    }
+
+    /**
+     * 发送任务检查是否可以结束，队列已空时结束并允许之后的addAll提交新任务
+     */
+    public synchronized boolean finishIfEmpty() {
+        if (blockCount > 0) return false;
+        active = false;
+        return true;
+    }
+
+    public synchronized void clear() {
+        sections.clear();
+        ordered.clear();
+        blockCount = 0;
+    }
+
+    // 待显示的方块数量
+    public synchronized int size() {
+        return blockCount;
+    }
+
+    // 因玩家转身或移动而重新评分的次数
+    public synchronized long getRescoreCount() {
+        return rescoreCount;
+    }
+
+    // 评分越小越先显示：距离乘以视线关系系数；还没有视线信息时都为0，保持加入顺序
+    // 区块段键与方块键的布局相同，可以直接解包出区块段坐标
+    private double score(long sectionKey) {
+        if (!hasView) return 0;
+        double vx = (BlockKeys.unpackX(sectionKey) << 4) + 8 - eyeX;
+        double vy = (BlockKeys.unpackY(sectionKey) << 4) + 8 - eyeY;
+        double vz = (BlockKeys.unpackZ(sectionKey) << 4) + 8 - eyeZ;
+        double distance = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        if (distance <= NEAR_DISTANCE) return distance * LOOK_FACTOR;
+
+        // 区块段外接球与视线的最小夹角
+        double cos = (vx * dirX + vy * dirY + vz * dirZ) / distance;
+        double angle = Math.acos(Math.max(-1, Math.min(1, cos))) - Math.asin(Math.min(1, SECTION_RADIUS / distance));
+        if (angle <= LOOK_ANGLE) return distance * LOOK_FACTOR;
+        if (angle <= FOV_ANGLE) return distance;
+        return distance * BEHIND_FACTOR;
+    }
+}
@@ -0,0 +1,145 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 显示调度器
+ * 移动事件中只做坐标比较并标记玩家，只有跨越区块段边界或距上次显示移动超过阈值时才触发显示，
+ * 每个玩家每tick最多处理一次，所有待处理玩家在同一个批次中完成。
+ */
+public class RevealScheduler {
+    private final JavaPlugin plugin;
+    private final Consumer<Player> revealAction;
+    // 玩家UUID -> 上次执行显示时的位置
+    private final Map<UUID, RevealPoint> lastReveal = new ConcurrentHashMap<>();
+    // 本tick需要执行显示的玩家，保持标记顺序
+    private final Set<UUID> pending = new LinkedHashSet<>();
+    private double moveThresholdSq;
+    private BukkitTask task;
+
+    // 上次显示时的位置，只保存比较所需的坐标
+    private static final class RevealPoint {
+        final UUID worldId;
+        final double x;
+        final double y;
+        final double z;
+
+        RevealPoint(Location location) {
+            World world = location.getWorld();
+            this.worldId = world == null ? null : world.getUID();
+            this.x = location.getX();
+            this.y = location.getY();
+            this.z = location.getZ();
+        }
+    }
+
+    public RevealScheduler(JavaPlugin plugin, double moveThreshold, Consumer<Player> revealAction) {
+        this.plugin = plugin;
+        this.revealAction = revealAction;
+        setMoveThreshold(moveThreshold);
+    }
+
+    public void start() {
+        if (task == null) {
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::flush, 1L, 1L);
+        }
+    }
+
+    public void shutdown() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        synchronized (pending) {
+            pending.clear();
+        }
+        lastReveal.clear();
+    }
+
+    public void setMoveThreshold(double moveThreshold) {
+        double threshold = Math.max(0.5, moveThreshold);
+        this.moveThresholdSq = threshold * threshold;
+    }
+
+    // 处理一次移动，只在需要时标记玩家
+    public void onMove(Player player, Location to) {
+        RevealPoint last = lastReveal.get(player.getUniqueId());
+        if (last == null || crossedSection(last, to) || movedBeyondThreshold(last, to)) {
+            markDirty(player);
+        }
+    }
+
+    // 标记玩家在本tick需要执行显示
+    public void markDirty(Player player) {
+        synchronized (pending) {
+            pending.add(player.getUniqueId());
+        }
+    }
+
+    public void removePlayer(UUID playerId) {
+        lastReveal.remove(playerId);
+        synchronized (pending) {
+            pending.remove(playerId);
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    // 批量处理本tick所有被标记的玩家
+    private void flush() {
+        UUID[] players;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            players = pending.toArray(new UUID[0]);
+            pending.clear();
+        }
+
+        for (UUID playerId : players) {
+            Player player = plugin.getServer().getPlayer(playerId);
+            if (player == null || !player.isOnline()) {
+                lastReveal.remove(playerId);
+                continue;
+            }
+            lastReveal.put(playerId, new RevealPoint(player.getLocation()));
+            try {
+                revealAction.accept(player);
+            } catch (Exception e) {
+                plugin.getLogger().warning("显示玩家附近方块时出错: " + e.getMessage());
+            }
+        }
+    }
+
+    private static boolean crossedSection(RevealPoint last, Location to) {
+        World world = to.getWorld();
+        if (world == null || !world.getUID().equals(last.worldId)) return true;
+        return (floor(last.x) >> 4) != (to.getBlockX() >> 4)
+                || (floor(last.y) >> 4) != (to.getBlockY() >> 4)
+                || (floor(last.z) >> 4) != (to.getBlockZ() >> 4);
+    }
+
+    private boolean movedBeyondThreshold(RevealPoint last, Location to) {
+        double dx = to.getX() - last.x;
+        double dy = to.getY() - last.y;
+        double dz = to.getZ() - last.z;
+        return dx * dx + dy * dy + dz * dz > moveThresholdSq;
+    }
+
+    private static int floor(double value) {
+        return (int) Math.floor(value);
+    }
+}
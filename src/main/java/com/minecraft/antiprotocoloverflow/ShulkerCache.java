@@ -0,0 +1,193 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * 潜影盒分类缓存
+ * 以物品内容（类型、数量和全部元数据）为键，缓存潜影盒是否有内容以及预先构建好的空盒占位物品。
+ * 仓库区反复打开同样的潜影盒时，不再重复反序列化方块状态和构建新的物品元数据。
+ * 查询时直接用数据包中的物品比较，不复制物品；只有未命中写入缓存时才保存一份副本。
+ * 有内容的潜影盒副本可能很大，除条目数外还按估算字节数限制总量，按最近最少使用淘汰，并统计命中率。
+ */
+public class ShulkerCache {
+    private final Map<Key, Entry> entries;
+    private final ToIntFunction<ItemStack> sizer;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile int maxSize;
+    private volatile long maxBytes;
+    // 缓存中物品副本的估算字节数，仅在持有entries锁时修改
+    private long bytes;
+
+    // 缓存的分类结果，创建后不可修改
+    public static final class Entry {
+        final boolean heavy;
+        final ItemStack placeholder;
+        final int weight;
+        final int bytes;
+
+        Entry(boolean heavy, ItemStack placeholder, int weight, int bytes) {
+            this.heavy = heavy;
+            this.placeholder = placeholder;
+            this.weight = weight;
+            this.bytes = bytes;
+        }
+
+        // 潜影盒本身估算的序列化字节数
+        public int getWeight() {
+            return weight;
+        }
+
+        // 潜影盒是否有内容，需要延迟加载
+        public boolean isHeavy() {
+            return heavy;
+        }
+
+        // 返回空盒占位物品的副本，不存在时返回null
+        public ItemStack createPlaceholder() {
+            return placeholder == null ? null : placeholder.clone();
+        }
+    }
+
+    // 缓存键：保存物品引用和预先计算的哈希值，查询时包装数据包中的物品，写入时包装副本
+    private static final class Key {
+        final ItemStack item;
+        final int hash;
+
+        Key(ItemStack item) {
+            this.item = item;
+            this.hash = item.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && item.equals(other.item);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param maxSize 条目数上限
+     * @param maxBytes 缓存中物品副本和占位物品的估算字节数上限
+     * @param sizer 估算物品序列化字节数，只在写入缓存时调用
+     */
+    public ShulkerCache(int maxSize, long maxBytes, ToIntFunction<ItemStack> sizer) {
+        this.maxSize = Math.max(1, maxSize);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.sizer = sizer;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    // 按最近最少使用淘汰，直到条目数和字节数都不超过上限，调用方持有entries锁
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > 1 && (entries.size() > maxSize || bytes > maxBytes) && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * 查询潜影盒的分类结果，未命中时调用isHeavy和placeholderFactory计算并缓存
+     * 只有有内容的潜影盒才会构建占位物品
+     */
+    public Entry classify(ItemStack item, Predicate<ItemStack> isHeavy, Function<ItemStack, ItemStack> placeholderFactory) {
+        Key lookup = new Key(item);
+        synchronized (entries) {
+            Entry cached = entries.get(lookup);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+
+        misses.increment();
+        boolean heavy = isHeavy.test(item);
+        ItemStack placeholder = heavy ? placeholderFactory.apply(item) : null;
+        int weight = sizer.applyAsInt(item);
+        int size = weight + (placeholder == null ? 0 : sizer.applyAsInt(placeholder));
+        Entry entry = new Entry(heavy, placeholder, weight, size);
+        Key key = new Key(item.clone());
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += size;
+            trim();
+        }
+        return entry;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    // 缓存中物品的估算字节数
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // 命中率（0~1），尚无查询时返回0
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+}
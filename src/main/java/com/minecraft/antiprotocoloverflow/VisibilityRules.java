@@ -0,0 +1,138 @@
+package com.minecraft.antiprotocoloverflow;
+
+import com.comphenix.protocol.wrappers.BlockPosition;
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 方块可见性规则
+ * 按与玩家的距离和方块携带的数据量决定受保护方块是否隐藏：从区块分类结果中挑选需要隐藏的方块，从隐藏方块表中挑选应该显示的方块。
+ * 只使用坐标和索引数据，不访问世界和玩家对象，可以单独运行。
+ */
+public class VisibilityRules {
+    private final double maxDistance;
+    private final double maxDistanceSquared;
+    private volatile int blockWeightThreshold;
+    private volatile long chunkWeightThreshold;
+
+    // 一个需要隐藏的方块
+    public static final class HiddenCandidate {
+        final BlockPosition position;
+        final Material material;
+        final double distanceSquared;
+
+        HiddenCandidate(BlockPosition position, Material material, double distanceSquared) {
+            this.position = position;
+            this.material = material;
+            this.distanceSquared = distanceSquared;
+        }
+    }
+
+    // 布局中一个需要隐藏的方块的回调
+    interface HiddenIndexSink {
+        void accept(int index, double distanceSquared);
+    }
+
+    public VisibilityRules(double maxDistance) {
+        this.maxDistance = maxDistance;
+        this.maxDistanceSquared = maxDistance * maxDistance;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    // 方块是否超出显示距离
+    public boolean isFar(double px, double py, double pz, int x, int y, int z) {
+        double dx = x - px;
+        double dy = y - py;
+        double dz = z - pz;
+        return dx * dx + dy * dy + dz * dz > maxDistanceSquared;
+    }
+
+    /**
+     * 设置延迟显示的数据量阈值：携带数据量不小于blockThreshold的方块，以及数据总量不小于chunkThreshold的区块内的所有受保护方块
+     * 才按距离延迟显示，其余方块随区块正常发送；两者都为0时所有受保护方块都延迟显示
+     */
+    public void setWeightThresholds(int blockThreshold, long chunkThreshold) {
+        this.blockWeightThreshold = Math.max(0, blockThreshold);
+        this.chunkWeightThreshold = Math.max(0, chunkThreshold);
+    }
+
+    // 是否按数据量区分重方块，为false时所有受保护方块都延迟显示
+    public boolean isWeighting() {
+        return blockWeightThreshold > 0 || chunkWeightThreshold > 0;
+    }
+
+    // 区块内的受保护方块是否全部延迟显示：区块未估算数据量，或数据总量达到区块阈值
+    public boolean defersWholeChunk(ProtectedBlockIndex.ChunkEntry entry) {
+        return !entry.isWeighed() || entry.getTotalWeight() >= chunkWeightThreshold;
+    }
+
+    // 区块记录中第index个方块是否延迟显示
+    public boolean defers(ProtectedBlockIndex.ChunkEntry entry, int index) {
+        return defersWholeChunk(entry) || entry.weights[index] >= blockWeightThreshold;
+    }
+
+    // 某个位置的受保护方块是否延迟显示，区块尚未建立索引或方块不在索引中时按延迟处理
+    public boolean defers(ProtectedBlockIndex.ChunkEntry entry, long position) {
+        if (entry == null || defersWholeChunk(entry)) return true;
+        int index = entry.indexOf(position);
+        return index < 0 || entry.weights[index] >= blockWeightThreshold;
+    }
+
+    /**
+     * 遍历区块中需要隐藏的方块：超出显示距离且需要延迟显示
+     * 整段都在显示距离内，或整段都是轻量方块的区块段直接跳过
+     */
+    void forEachHidden(ProtectedBlockIndex.ChunkEntry entry, ChunkLayout layout, double px, double py, double pz,
+                       HiddenIndexSink sink) {
+        boolean wholeChunk = defersWholeChunk(entry);
+        int threshold = blockWeightThreshold;
+        for (int s = 0; s < layout.sectionCount(); s++) {
+            if (!wholeChunk && layout.maxWeight[s] < threshold) continue;
+            // 整个区块段都在显示距离内
+            if (layout.farthestSquared(s, px, py, pz) <= maxDistanceSquared) continue;
+            for (int i = layout.sectionStart[s]; i < layout.sectionStart[s + 1]; i++) {
+                if (!wholeChunk && layout.weights[i] < threshold) continue;
+                double dx = layout.xs[i] - px;
+                double dy = layout.ys[i] - py;
+                double dz = layout.zs[i] - pz;
+                double distSq = dx * dx + dy * dy + dz * dz;
+                if (distSq > maxDistanceSquared) {
+                    sink.accept(i, distSq);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从区块分类结果中选出超出显示距离且需要延迟显示的方块
+     * 使用区块记录缓存的布局，只计算玩家自己的距离
+     * 按距离升序排列，距离相同时Y坐标高的在前
+     */
+    public List<HiddenCandidate> selectHidden(ProtectedBlockIndex.ChunkEntry entry, double px, double py, double pz) {
+        List<HiddenCandidate> candidates = new ArrayList<>();
+        ChunkLayout layout = entry.layout();
+        forEachHidden(entry, layout, px, py, pz, (i, distSq) -> candidates.add(new HiddenCandidate(
+                new BlockPosition(layout.xs[i], layout.ys[i], layout.zs[i]), layout.types[i], distSq)));
+
+        candidates.sort((a, b) -> {
+            if (a.distanceSquared != b.distanceSquared) {
+                return Double.compare(a.distanceSquared, b.distanceSquared);
+            }
+            return Integer.compare(b.position.getY(), a.position.getY());
+        });
+        return candidates;
+    }
+
+    // 从隐藏方块表中选出与玩家距离不超过radius的方块
+    public List<BlockPosition> selectVisible(HiddenBlockStore store, double px, double py, double pz, double radius) {
+        List<BlockPosition> visible = new ArrayList<>();
+        store.forEachWithin(px, py, pz, radius, (key, type) ->
+                visible.add(new BlockPosition(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key))));
+        return visible;
+    }
+}
@@ -0,0 +1,99 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 窗口物品过滤
+ * 从WINDOW_ITEMS数据包的物品列表中找出需要延迟发送的非空潜影盒，并就地替换为空盒占位物品。
+ * 潜影盒是否有内容以及占位物品的构建由调用方传入，插件使用hasContents和emptyPlaceholder；不需要数据包和玩家对象，可以单独运行。
+ */
+public class WindowItemsFilter {
+    private final ShulkerCache shulkerCache;
+    private final Predicate<ItemStack> isHeavy;
+    private final Function<ItemStack, ItemStack> placeholderFactory;
+
+    public WindowItemsFilter(ShulkerCache shulkerCache, Predicate<ItemStack> isHeavy,
+                             Function<ItemStack, ItemStack> placeholderFactory) {
+        this.shulkerCache = shulkerCache;
+        this.isHeavy = isHeavy;
+        this.placeholderFactory = placeholderFactory;
+    }
+
+    /**
+     * 过滤物品列表，非空潜影盒被替换为占位物品
+     * @return 需要延迟发送的物品，没有时返回不可修改的空列表
+     */
+    public List<PacketHandler.DelayedItem> filter(List<ItemStack> items) {
+        List<PacketHandler.DelayedItem> delayed = Collections.emptyList();
+        for (int i = 0; i < items.size(); i++) {
+            ItemStack item = items.get(i);
+            // 普通物品和空潜影盒直接显示
+            if (item == null || !BlockTypes.isShulkerBox(item.getType())) continue;
+
+            // 相同内容的潜影盒只分类一次，空盒占位物品也从缓存中复制
+            ShulkerCache.Entry entry = shulkerCache.classify(item, isHeavy, placeholderFactory);
+            if (!entry.isHeavy()) continue;
+
+            if (delayed.isEmpty()) {
+                delayed = new ArrayList<>();
+            }
+            delayed.add(new PacketHandler.DelayedItem(i, item, true, entry.getWeight()));
+            ItemStack placeholder = entry.createPlaceholder();
+            if (placeholder != null) {
+                items.set(i, placeholder);
+            }
+        }
+        return delayed;
+    }
+
+    // 潜影盒是否有内容，插件使用的isHeavy
+    public static boolean hasContents(ItemStack shulkerBox) {
+        if (shulkerBox == null || !BlockTypes.isShulkerBox(shulkerBox.getType())) return false;
+
+        try {
+            BlockStateMeta meta = (BlockStateMeta) shulkerBox.getItemMeta();
+            if (meta == null || !meta.hasBlockState()) return false;
+
+            ShulkerBox shulkerBoxState = (ShulkerBox) meta.getBlockState();
+            return !shulkerBoxState.getInventory().isEmpty();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // 同色的空潜影盒，保留名称和描述但不含内容，插件使用的占位物品
+    public static ItemStack emptyPlaceholder(ItemStack shulkerBox) {
+        if (shulkerBox == null || !BlockTypes.isShulkerBox(shulkerBox.getType())) return null;
+
+        try {
+            ItemStack placeholder = new ItemStack(shulkerBox.getType());
+            if (shulkerBox.hasItemMeta()) {
+                ItemMeta originalMeta = shulkerBox.getItemMeta();
+                if (originalMeta != null) {
+                    ItemMeta emptyMeta = placeholder.getItemMeta();
+                    if (emptyMeta != null) {
+                        if (originalMeta.hasDisplayName()) {
+                            emptyMeta.setDisplayName(originalMeta.getDisplayName());
+                        }
+                        if (originalMeta.hasLore()) {
+                            emptyMeta.setLore(originalMeta.getLore());
+                        }
+                        placeholder.setItemMeta(emptyMeta);
+                    }
+                }
+            }
+            return placeholder;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.minecraft.antiprotocoloverflow;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 玩家窗口加载会话
+ * 保存一个玩家的一个窗口（背包或容器）的加载状态、等待延迟发送的物品和对应的发送任务。
+ * 窗口ID只在单个连接内唯一，因此会话按玩家分别保存；窗口关闭、被新窗口替换或玩家离线时释放，
+ * 释放时取消尚未完成的发送任务。
+ * 会话同时记录服务端最新的容器状态ID和客户端已持有最新内容的槽位，延迟发送的SET_SLOT使用真实的状态ID，
+ * 服务端重新同步整个窗口时，已送达的槽位如果是轻量物品或与客户端已有内容相同则不再重复延迟。
+ * 延迟发送期间还保存最近一次发给客户端的完整窗口内容，一个tick内的多个延迟物品可以合并为一个WINDOW_ITEMS发送。
+ */
+public class WindowSession {
+    // 玩家背包的窗口ID
+    public static final int PLAYER_INVENTORY = 0;
+    // 数据包头部（窗口ID、状态ID、槽位或物品数量）的大致字节数
+    static final int SET_SLOT_HEADER_BYTES = 8;
+    static final int WINDOW_ITEMS_HEADER_BYTES = 8;
+
+    private final int windowId;
+    private volatile boolean loading;
+    private volatile boolean released;
+    private volatile List<PacketHandler.DelayedItem> pendingItems = Collections.emptyList();
+    private volatile int stateId;
+    private final BitSet deliveredSlots = new BitSet();
+    private PacketJob job;
+    private boolean started;
+    // 客户端当前看到的窗口内容及每个槽位的估算字节数
+    private List<ItemStack> snapshot;
+    private int[] snapshotWeights;
+    private ItemStack snapshotCarried;
+    private long snapshotBytes;
+
+    WindowSession(int windowId, boolean loading) {
+        this.windowId = windowId;
+        this.loading = loading;
+    }
+
+    public int getWindowId() {
+        return windowId;
+    }
+
+    // 窗口内容是否需要延迟加载
+    public boolean isLoading() {
+        return loading && !released;
+    }
+
+    void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    // 服务端最近一次发送的容器状态ID
+    public int getStateId() {
+        return stateId;
+    }
+
+    void setStateId(int stateId) {
+        this.stateId = stateId;
+    }
+
+    // 客户端已持有该槽位的最新内容（延迟物品已送达，或服务端之后单独更新过该槽位）
+    synchronized void markDelivered(int slot) {
+        if (slot >= 0) {
+            deliveredSlots.set(slot);
+        }
+    }
+
+    synchronized boolean isDelivered(int slot) {
+        return slot >= 0 && deliveredSlots.get(slot);
+    }
+
+    // 槽位重新进入延迟发送，之前送达的内容已过期
+    synchronized void clearDelivered(int slot) {
+        if (slot >= 0) {
+            deliveredSlots.clear(slot);
+        }
+    }
+
+    // 是否已经开始过延迟发送，重新同步时不再等待首次加载延迟
+    synchronized boolean hasStarted() {
+        return started;
+    }
+
+    // 记录发给客户端的完整窗口内容（替换占位物品之后）
+    synchronized void setSnapshot(List<ItemStack> items, ItemStack carried, int[] weights) {
+        snapshot = new ArrayList<>(items);
+        snapshotWeights = weights;
+        snapshotCarried = carried;
+        snapshotBytes = 0;
+        for (int weight : weights) {
+            snapshotBytes += weight;
+        }
+    }
+
+    synchronized boolean hasSnapshot() {
+        return snapshot != null;
+    }
+
+    // 客户端当前看到的该槽位内容是否与item相同
+    synchronized boolean snapshotMatches(int slot, ItemStack item) {
+        if (snapshot == null || slot < 0 || slot >= snapshot.size()) return false;
+        return Objects.equals(snapshot.get(slot), item);
+    }
+
+    // 客户端的某个槽位已更新为新内容
+    synchronized void updateSnapshot(int slot, ItemStack item, int weight) {
+        if (snapshot == null || slot < 0 || slot >= snapshot.size()) return;
+        snapshotBytes += weight - snapshotWeights[slot];
+        snapshotWeights[slot] = weight;
+        snapshot.set(slot, item);
+    }
+
+    /**
+     * 把一批延迟物品合并进窗口内容后整个WINDOW_ITEMS的估算字节数
+     * @return 没有窗口内容记录时返回-1
+     */
+    synchronized long estimateCoalescedBytes(List<PacketHandler.DelayedItem> batch, long batchBytes) {
+        if (snapshot == null) return -1;
+        long bytes = WINDOW_ITEMS_HEADER_BYTES + snapshotBytes + batchBytes;
+        for (PacketHandler.DelayedItem delayedItem : batch) {
+            if (delayedItem.slot < 0 || delayedItem.slot >= snapshotWeights.length) return -1;
+            bytes -= snapshotWeights[delayedItem.slot];
+        }
+        return bytes;
+    }
+
+    // 合并了一批延迟物品的窗口内容副本，不修改记录本身
+    synchronized List<ItemStack> snapshotWith(List<PacketHandler.DelayedItem> batch) {
+        if (snapshot == null) return null;
+        List<ItemStack> items = new ArrayList<>(snapshot);
+        for (PacketHandler.DelayedItem delayedItem : batch) {
+            items.set(delayedItem.slot, delayedItem.item);
+        }
+        return items;
+    }
+
+    synchronized ItemStack getSnapshotCarried() {
+        return snapshotCarried;
+    }
+
+    private void clearSnapshot() {
+        snapshot = null;
+        snapshotWeights = null;
+        snapshotCarried = null;
+        snapshotBytes = 0;
+    }
+
+    // 等待延迟发送的物品数量
+    public int getPendingCount() {
+        return pendingItems.size();
+    }
+
+    /**
+     * 开始发送一批延迟物品，同一窗口之前未完成的发送任务被取消
+     * @return 会话已释放时返回false，调用方不应再提交任务
+     */
+    boolean start(List<PacketHandler.DelayedItem> items, PacketJob newJob) {
+        PacketJob previous;
+        synchronized (this) {
+            if (released) return false;
+            previous = job;
+            job = newJob;
+            started = true;
+            pendingItems = items;
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+        return true;
+    }
+
+    // 发送任务结束（完成或被取消）时调用；容器窗口的物品发送完后不再需要延迟加载
+    synchronized void complete(PacketJob finishedJob) {
+        if (job != finishedJob) return;
+        job = null;
+        pendingItems = Collections.emptyList();
+        clearSnapshot();
+        if (windowId != PLAYER_INVENTORY) {
+            loading = false;
+        }
+    }
+
+    // 剩余的延迟物品已由服务端重新同步送达，结束当前的发送任务
+    void finishPending() {
+        PacketJob current;
+        synchronized (this) {
+            current = job;
+            job = null;
+            pendingItems = Collections.emptyList();
+            clearSnapshot();
+            if (windowId != PLAYER_INVENTORY) {
+                loading = false;
+            }
+        }
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    // 释放会话并取消尚未完成的发送任务
+    void release() {
+        PacketJob current;
+        synchronized (this) {
+            if (released) return;
+            released = true;
+            loading = false;
+            current = job;
+            job = null;
+            pendingItems = Collections.emptyList();
+            clearSnapshot();
+        }
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}